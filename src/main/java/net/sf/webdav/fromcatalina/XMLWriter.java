@@ -45,12 +45,18 @@ public class XMLWriter {
    */
   public static final int NO_CONTENT = 2;
 
+  /**
+   * Number of buffered characters after which the buffer is written to the
+   * writer.
+   */
+  private static final int FLUSH_THRESHOLD = 8192;
+
   // ----------------------------------------------------- Instance Variables
 
   /**
    * Buffer.
    */
-  protected StringBuffer _buffer = new StringBuffer();
+  protected StringBuilder _buffer = new StringBuilder();
 
   /**
    * Writer.
@@ -67,6 +73,11 @@ public class XMLWriter {
    */
   protected boolean _isRootElement = true;
 
+  /**
+   * Exception that occurred while writing the buffer to the writer
+   */
+  protected IOException _writeException = null;
+
   // ----------------------------------------------------------- Constructors
 
   /**
@@ -128,7 +139,7 @@ public class XMLWriter {
    *          Element type
    */
   public void writeElement(String name, int type) {
-    StringBuffer nsdecl = new StringBuffer();
+    StringBuilder nsdecl = new StringBuilder();
 
     if (_isRootElement) {
       for (Iterator<String> iter = _namespaces.keySet().iterator(); iter.hasNext();) {
@@ -158,14 +169,16 @@ public class XMLWriter {
 
     switch (type) {
     case OPENING:
-      _buffer.append("<" + name + nsdecl + ">");
+      _buffer.append('<').append(name).append(nsdecl).append('>');
       break;
     case CLOSING:
-      _buffer.append("</" + name + ">\n");
+      _buffer.append("</").append(name).append(">\n");
+      // Stream the document to the writer, element by element:
+      flushBuffer();
       break;
     case NO_CONTENT:
     default:
-      _buffer.append("<" + name + nsdecl + "/>");
+      _buffer.append('<').append(name).append(nsdecl).append("/>");
       break;
     }
   }
@@ -187,7 +200,7 @@ public class XMLWriter {
    *          Data to append
    */
   public void writeData(String data) {
-    _buffer.append("<![CDATA[" + data + "]]>");
+    _buffer.append("<![CDATA[").append(data).append("]]>");
   }
 
   /**
@@ -197,14 +210,32 @@ public class XMLWriter {
     _buffer.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
   }
 
+  /**
+   * Writes the buffer to the writer when it exceeds the flush threshold. An
+   * exception is kept and thrown by {@link #sendData()}.
+   */
+  protected void flushBuffer() {
+    if (_writer != null && _writeException == null && _buffer.length() >= FLUSH_THRESHOLD) {
+      try {
+        _writer.append(_buffer);
+      } catch (IOException e) {
+        _writeException = e;
+      }
+      _buffer.setLength(0);
+    }
+  }
+
   /**
    * Send data and reinitializes buffer.
    */
   public void sendData() throws IOException {
     if (_writer != null) {
-      _writer.write(_buffer.toString());
+      if (_writeException != null) {
+        throw _writeException;
+      }
+      _writer.append(_buffer);
       _writer.flush();
-      _buffer = new StringBuffer();
+      _buffer.setLength(0);
     }
   }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2005-2006 webdav-servlet group.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.webdav.locking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * hashed timer wheel with a resolution of one second that keeps track of the
+ * expiration times of LockedObjects, so expired locks can be found without
+ * visiting all locks. a LockedObject whose timeout was refreshed, or that
+ * expires more than one rotation later, is returned when its slot comes due
+ * and must be scheduled again by the caller.
+ */
+class ExpiryWheel {
+
+  private static final long TICK_MILLIS = 1000L;
+
+  private static final int SLOTS = 512;
+
+  private final List<List<LockedObject>> _slots = new ArrayList<List<LockedObject>>(SLOTS);
+
+  /**
+   * the first tick that has not been processed yet
+   */
+  private long _nextTick;
+
+  public ExpiryWheel() {
+    for (int i = 0; i < SLOTS; i++) {
+      _slots.add(new ArrayList<LockedObject>());
+    }
+    _nextTick = System.currentTimeMillis() / TICK_MILLIS;
+  }
+
+  /**
+   * schedules a LockedObject at its current expiration time
+   * 
+   * @param lo
+   *          the LockedObject
+   */
+  public synchronized void schedule(LockedObject lo) {
+    long tick = Math.max(lo._expiresAt / TICK_MILLIS, _nextTick);
+    _slots.get((int) (tick % SLOTS)).add(lo);
+  }
+
+  /**
+   * removes and returns the LockedObjects of all slots that came due since the
+   * last call
+   * 
+   * @param now
+   *          the current time in milliseconds
+   * @return LockedObjects that may have expired
+   */
+  public synchronized List<LockedObject> advance(long now) {
+    long tick = now / TICK_MILLIS;
+    if (tick < _nextTick) {
+      return Collections.emptyList();
+    }
+    List<LockedObject> due = new ArrayList<LockedObject>();
+    long count = Math.min(tick - _nextTick + 1, SLOTS);
+    for (long i = 0; i < count; i++) {
+      List<LockedObject> slot = _slots.get((int) ((_nextTick + i) % SLOTS));
+      if (!slot.isEmpty()) {
+        due.addAll(slot);
+        slot.clear();
+      }
+    }
+    _nextTick = tick + 1;
+    return due;
+  }
+
+}
@@ -41,7 +41,7 @@ public class LockedObject {
   /**
    * Describing the timeout of a locked object (ms)
    */
-  protected long _expiresAt;
+  protected volatile long _expiresAt;
 
   /**
    * owner of the lock. shared locks can have multiple owners. is null if no
@@ -68,6 +68,11 @@ public class LockedObject {
    */
   protected String _type = null;
 
+  /**
+   * true if this is a temporary LockedObject
+   */
+  protected final boolean _temporary;
+
   /**
    * @param _resourceLocks
    *          the resourceLocks where locks are stored
@@ -80,6 +85,7 @@ public class LockedObject {
     _path = path;
     _id = UUID.randomUUID().toString();
     _resourceLocks = resLocks;
+    _temporary = temporary;
 
     if (!temporary) {
       _resourceLocks._locks.put(path, this);
@@ -88,7 +94,6 @@ public class LockedObject {
       _resourceLocks._tempLocks.put(path, this);
       _resourceLocks._tempLocksByID.put(_id, this);
     }
-    _resourceLocks._cleanupCounter++;
   }
 
   /**
@@ -167,7 +172,7 @@ public class LockedObject {
    * @param newChild
    *          new child
    */
-  public void addChild(LockedObject newChild) {
+  public synchronized void addChild(LockedObject newChild) {
     if (_children == null) {
       _children = new LockedObject[0];
     }
@@ -178,6 +183,28 @@ public class LockedObject {
     _children = newChildren;
   }
 
+  /**
+   * removes a child lock from this lock
+   * 
+   * @param child
+   *          child to remove
+   */
+  public synchronized void removeChild(LockedObject child) {
+    if (_children == null) {
+      return;
+    }
+    int size = _children.length;
+    for (int i = 0; i < size; i++) {
+      if (_children[i].equals(child)) {
+        LockedObject[] newChildren = new LockedObject[size - 1];
+        System.arraycopy(_children, 0, newChildren, 0, i);
+        System.arraycopy(_children, i + 1, newChildren, i, size - i - 1);
+        _children = (newChildren.length != 0) ? newChildren : null;
+        break;
+      }
+    }
+  }
+
   /**
    * deletes this Lock object. assumes that it has no children and no owners
    * (does not check this itself)
@@ -185,26 +212,7 @@ public class LockedObject {
    */
   public void removeLockedObject() {
     if (this != _resourceLocks._root && !this.getPath().equals("/")) {
-
-      int size = _parent._children.length;
-      for (int i = 0; i < size; i++) {
-        if (_parent._children[i].equals(this)) {
-          LockedObject[] newChildren = new LockedObject[size - 1];
-          for (int i2 = 0; i2 < (size - 1); i2++) {
-            if (i2 < i) {
-              newChildren[i2] = _parent._children[i2];
-            } else {
-              newChildren[i2] = _parent._children[i2 + 1];
-            }
-          }
-          if (newChildren.length != 0) {
-            _parent._children = newChildren;
-          } else {
-            _parent._children = null;
-          }
-          break;
-        }
-      }
+      _parent.removeChild(this);
 
       // removing from hashtable
       _resourceLocks._locksByID.remove(getID());
@@ -222,26 +230,8 @@ public class LockedObject {
   public void removeTempLockedObject() {
     if (this != _resourceLocks._tempRoot) {
       // removing from tree
-      if (_parent != null && _parent._children != null) {
-        int size = _parent._children.length;
-        for (int i = 0; i < size; i++) {
-          if (_parent._children[i].equals(this)) {
-            LockedObject[] newChildren = new LockedObject[size - 1];
-            for (int i2 = 0; i2 < (size - 1); i2++) {
-              if (i2 < i) {
-                newChildren[i2] = _parent._children[i2];
-              } else {
-                newChildren[i2] = _parent._children[i2 + 1];
-              }
-            }
-            if (newChildren.length != 0) {
-              _parent._children = newChildren;
-            } else {
-              _parent._children = null;
-            }
-            break;
-          }
-        }
+      if (_parent != null) {
+        _parent.removeChild(this);
 
         // removing from hashtable
         _resourceLocks._tempLocksByID.remove(getID());
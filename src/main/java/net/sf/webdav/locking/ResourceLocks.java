@@ -16,8 +16,9 @@
 
 package net.sf.webdav.locking;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.webdav.ITransaction;
 import net.sf.webdav.exceptions.LockFailedException;
@@ -35,34 +36,40 @@ public class ResourceLocks implements IResourceLocks {
   private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ResourceLocks.class);
 
   /**
-   * after creating this much LockedObjects, a cleanup deletes unused
-   * LockedObjects
+   * number of stripes the locks are divided into. the stripe of a lock is
+   * determined by the first segment of its path, so locking resources in
+   * different top level folders does not contend
    */
-  private final int _cleanupLimit = 100000;
+  private static final int STRIPES = 64;
 
-  protected int _cleanupCounter = 0;
+  private final ReentrantLock[] _stripes = new ReentrantLock[STRIPES];
+
+  /**
+   * keeps track of the expiration times of the (temporary) locks
+   */
+  private final ExpiryWheel _expiryWheel = new ExpiryWheel();
 
   /**
    * keys: path value: LockedObject from that path
    */
-  protected Hashtable<String, LockedObject> _locks = new Hashtable<String, LockedObject>();
+  protected Map<String, LockedObject> _locks = new ConcurrentHashMap<String, LockedObject>();
 
   /**
    * keys: id value: LockedObject from that id
    */
-  protected Hashtable<String, LockedObject> _locksByID = new Hashtable<String, LockedObject>();
+  protected Map<String, LockedObject> _locksByID = new ConcurrentHashMap<String, LockedObject>();
 
   /**
    * keys: path value: Temporary LockedObject from that path
    */
-  protected Hashtable<String, LockedObject> _tempLocks = new Hashtable<String, LockedObject>();
+  protected Map<String, LockedObject> _tempLocks = new ConcurrentHashMap<String, LockedObject>();
 
   /**
    * keys: id value: Temporary LockedObject from that id
    */
-  protected Hashtable<String, LockedObject> _tempLocksByID = new Hashtable<String, LockedObject>();
+  protected Map<String, LockedObject> _tempLocksByID = new ConcurrentHashMap<String, LockedObject>();
 
-  // REMEMBER TO REMOVE UNUSED LOCKS FROM THE HASHTABLE AS WELL
+  // REMEMBER TO REMOVE UNUSED LOCKS FROM THE MAPS AS WELL
 
   protected LockedObject _root = null;
 
@@ -71,71 +78,67 @@ public class ResourceLocks implements IResourceLocks {
   private boolean _temporary = true;
 
   public ResourceLocks() {
+    for (int i = 0; i < STRIPES; i++) {
+      _stripes[i] = new ReentrantLock();
+    }
     _root = new LockedObject(this, "/", true);
     _tempRoot = new LockedObject(this, "/", false);
   }
 
-  public synchronized boolean lock(ITransaction transaction, String path, String owner, boolean exclusive, int depth, int timeout, boolean temporary) throws LockFailedException {
+  public boolean lock(ITransaction transaction, String path, String owner, boolean exclusive, int depth, int timeout, boolean temporary) throws LockFailedException {
+    acquireStripes(path);
+    try {
+      LockedObject lo = null;
 
-    LockedObject lo = null;
+      if (temporary) {
+        lo = generateTempLockedObjects(transaction, path);
+        lo._type = "read";
+      } else {
+        lo = generateLockedObjects(transaction, path);
+        lo._type = "write";
+      }
 
-    if (temporary) {
-      lo = generateTempLockedObjects(transaction, path);
-      lo._type = "read";
-    } else {
-      lo = generateLockedObjects(transaction, path);
-      lo._type = "write";
-    }
+      if (lo.checkLocks(exclusive, depth)) {
 
-    if (lo.checkLocks(exclusive, depth)) {
-
-      lo._exclusive = exclusive;
-      lo._lockDepth = depth;
-      lo._expiresAt = System.currentTimeMillis() + (timeout * 1000);
-      if (lo._parent != null) {
-        lo._parent._expiresAt = lo._expiresAt;
-        if (lo._parent.equals(_root)) {
-          LockedObject rootLo = getLockedObjectByPath(transaction, _root.getPath());
-          rootLo._expiresAt = lo._expiresAt;
-        } else if (lo._parent.equals(_tempRoot)) {
-          LockedObject tempRootLo = getTempLockedObjectByPath(transaction, _tempRoot.getPath());
-          tempRootLo._expiresAt = lo._expiresAt;
+        lo._exclusive = exclusive;
+        lo._lockDepth = depth;
+        lo._expiresAt = System.currentTimeMillis() + (timeout * 1000);
+        if (lo.addLockedObjectOwner(owner)) {
+          _expiryWheel.schedule(lo);
+          return true;
+        } else {
+          LOG.trace("Couldn't set owner \"" + owner + "\" to resource at '" + path + "'");
+          return false;
         }
-      }
-      if (lo.addLockedObjectOwner(owner)) {
-        return true;
       } else {
-        LOG.trace("Couldn't set owner \"" + owner + "\" to resource at '" + path + "'");
+        // can not lock
+        LOG.trace("Lock resource at " + path + " failed because" + "\na parent or child resource is currently locked");
+        removeUnusedLockedObjects(lo);
         return false;
       }
-    } else {
-      // can not lock
-      LOG.trace("Lock resource at " + path + " failed because" + "\na parent or child resource is currently locked");
-      return false;
+    } finally {
+      releaseStripes(path);
     }
   }
 
-  public synchronized boolean unlock(ITransaction transaction, String id, String owner) {
-
-    if (_locksByID.containsKey(id)) {
-      String path = _locksByID.get(id).getPath();
-      if (_locks.containsKey(path)) {
+  public boolean unlock(ITransaction transaction, String id, String owner) {
+    LockedObject lockById = _locksByID.get(id);
+    if (lockById != null) {
+      String path = lockById.getPath();
+      acquireStripes(path);
+      try {
         LockedObject lo = _locks.get(path);
-        lo.removeLockedObjectOwner(owner);
-
-        if (lo._children == null && lo._owner == null)
-          lo.removeLockedObject();
-
-      } else {
-        // there is no lock at that path. someone tried to unlock it
-        // anyway. could point to a problem
-        LOG.trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path " + path);
-        return false;
-      }
-
-      if (_cleanupCounter > _cleanupLimit) {
-        _cleanupCounter = 0;
-        cleanLockedObjects(transaction, _root, !_temporary);
+        if (lo != null) {
+          lo.removeLockedObjectOwner(owner);
+          removeUnusedLockedObjects(lo);
+        } else {
+          // there is no lock at that path. someone tried to unlock it
+          // anyway. could point to a problem
+          LOG.trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path " + path);
+          return false;
+        }
+      } finally {
+        releaseStripes(path);
       }
     }
     checkTimeouts(transaction, !_temporary);
@@ -144,47 +147,53 @@ public class ResourceLocks implements IResourceLocks {
 
   }
 
-  public synchronized void unlockTemporaryLockedObjects(ITransaction transaction, String path, String owner) {
-    if (_tempLocks.containsKey(path)) {
+  public void unlockTemporaryLockedObjects(ITransaction transaction, String path, String owner) {
+    acquireStripes(path);
+    try {
       LockedObject lo = _tempLocks.get(path);
-      lo.removeLockedObjectOwner(owner);
-
-    } else {
-      // there is no lock at that path. someone tried to unlock it
-      // anyway. could point to a problem
-      LOG.trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path " + path);
-    }
-
-    if (_cleanupCounter > _cleanupLimit) {
-      _cleanupCounter = 0;
-      cleanLockedObjects(transaction, _tempRoot, _temporary);
+      if (lo != null) {
+        lo.removeLockedObjectOwner(owner);
+        removeUnusedLockedObjects(lo);
+      } else {
+        // there is no lock at that path. someone tried to unlock it
+        // anyway. could point to a problem
+        LOG.trace("net.sf.webdav.locking.ResourceLocks.unlock(): no lock for path " + path);
+      }
+    } finally {
+      releaseStripes(path);
     }
 
     checkTimeouts(transaction, _temporary);
 
   }
 
+  /**
+   * removes the owners of the (temporary) locks whose slot in the expiry wheel
+   * came due and that have expired. the temporary parameter is ignored, locks
+   * and temporary locks share the expiry wheel
+   */
   public void checkTimeouts(ITransaction transaction, boolean temporary) {
-    if (!temporary) {
-      Enumeration<LockedObject> lockedObjects = _locks.elements();
-      while (lockedObjects.hasMoreElements()) {
-        LockedObject currentLockedObject = lockedObjects.nextElement();
-
-        if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-          currentLockedObject.removeLockedObject();
+    long now = System.currentTimeMillis();
+    for (LockedObject lo : _expiryWheel.advance(now)) {
+      String path = lo.getPath();
+      acquireStripes(path);
+      try {
+        Map<String, LockedObject> locks = lo._temporary ? _tempLocks : _locks;
+        if (locks.get(path) != lo) {
+          // already removed
+          continue;
         }
-      }
-    } else {
-      Enumeration<LockedObject> lockedObjects = _tempLocks.elements();
-      while (lockedObjects.hasMoreElements()) {
-        LockedObject currentLockedObject = lockedObjects.nextElement();
-
-        if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-          currentLockedObject.removeTempLockedObject();
+        if (lo._expiresAt < now) {
+          lo._owner = null;
+          removeUnusedLockedObjects(lo);
+        } else if (lo._owner != null) {
+          // timeout was refreshed
+          _expiryWheel.schedule(lo);
         }
+      } finally {
+        releaseStripes(path);
       }
     }
-
   }
 
   public boolean exclusiveLock(ITransaction transaction, String path, String owner, int depth, int timeout) throws LockFailedException {
@@ -196,35 +205,19 @@ public class ResourceLocks implements IResourceLocks {
   }
 
   public LockedObject getLockedObjectByID(ITransaction transaction, String id) {
-    if (_locksByID.containsKey(id)) {
-      return _locksByID.get(id);
-    } else {
-      return null;
-    }
+    return _locksByID.get(id);
   }
 
   public LockedObject getLockedObjectByPath(ITransaction transaction, String path) {
-    if (_locks.containsKey(path)) {
-      return (LockedObject) this._locks.get(path);
-    } else {
-      return null;
-    }
+    return _locks.get(path);
   }
 
   public LockedObject getTempLockedObjectByID(ITransaction transaction, String id) {
-    if (_tempLocksByID.containsKey(id)) {
-      return _tempLocksByID.get(id);
-    } else {
-      return null;
-    }
+    return _tempLocksByID.get(id);
   }
 
   public LockedObject getTempLockedObjectByPath(ITransaction transaction, String path) {
-    if (_tempLocks.containsKey(path)) {
-      return (LockedObject) this._tempLocks.get(path);
-    } else {
-      return null;
-    }
+    return _tempLocks.get(path);
   }
 
   /**
@@ -237,7 +230,8 @@ public class ResourceLocks implements IResourceLocks {
    * @return the LockedObject for path.
    */
   private LockedObject generateLockedObjects(ITransaction transaction, String path) {
-    if (!_locks.containsKey(path)) {
+    LockedObject existingObject = _locks.get(path);
+    if (existingObject == null) {
       LockedObject returnObject = new LockedObject(this, path, !_temporary);
       String parentPath = getParentPath(path);
       if (parentPath != null) {
@@ -248,7 +242,7 @@ public class ResourceLocks implements IResourceLocks {
       return returnObject;
     } else {
       // there is already a LockedObject on the specified path
-      return (LockedObject) this._locks.get(path);
+      return existingObject;
     }
 
   }
@@ -263,7 +257,8 @@ public class ResourceLocks implements IResourceLocks {
    * @return the LockedObject for path.
    */
   private LockedObject generateTempLockedObjects(ITransaction transaction, String path) {
-    if (!_tempLocks.containsKey(path)) {
+    LockedObject existingObject = _tempLocks.get(path);
+    if (existingObject == null) {
       LockedObject returnObject = new LockedObject(this, path, _temporary);
       String parentPath = getParentPath(path);
       if (parentPath != null) {
@@ -274,64 +269,64 @@ public class ResourceLocks implements IResourceLocks {
       return returnObject;
     } else {
       // there is already a LockedObject on the specified path
-      return (LockedObject) this._tempLocks.get(path);
+      return existingObject;
     }
 
   }
 
   /**
-   * deletes unused LockedObjects and resets the counter. works recursively
-   * starting at the given LockedObject
+   * deletes the given LockedObject and its parents as long as they have no
+   * owners and no children. the caller must hold the stripe of the
+   * LockedObject
    * 
-   * @param transaction
    * @param lo
    *          LockedObject
-   * @param temporary
-   *          Clean temporary or real locks
-   * 
-   * @return if cleaned
    */
-  private boolean cleanLockedObjects(ITransaction transaction, LockedObject lo, boolean temporary) {
+  private void removeUnusedLockedObjects(LockedObject lo) {
+    while (lo != null && lo != _root && lo != _tempRoot && lo._owner == null && lo._children == null) {
+      LockedObject parent = lo._parent;
+      if (lo._temporary) {
+        lo.removeTempLockedObject();
+      } else {
+        lo.removeLockedObject();
+      }
+      lo = parent;
+    }
+  }
 
-    if (lo._children == null) {
-      if (lo._owner == null) {
-        if (temporary) {
-          lo.removeTempLockedObject();
-        } else {
-          lo.removeLockedObject();
-        }
+  /**
+   * returns the stripe of the given path, or -1 for the root, which needs all
+   * stripes
+   */
+  private int getStripe(String path) {
+    int start = path.startsWith("/") ? 1 : 0;
+    int end = path.indexOf('/', start);
+    String segment = (end == -1) ? path.substring(start) : path.substring(start, end);
+    if (segment.isEmpty()) {
+      return -1;
+    }
+    return (segment.hashCode() & Integer.MAX_VALUE) % STRIPES;
+  }
 
-        return true;
-      } else {
-        return false;
+  private void acquireStripes(String path) {
+    int stripe = getStripe(path);
+    if (stripe == -1) {
+      for (int i = 0; i < STRIPES; i++) {
+        _stripes[i].lock();
       }
     } else {
-      boolean canDelete = true;
-      int limit = lo._children.length;
-      for (int i = 0; i < limit; i++) {
-        if (!cleanLockedObjects(transaction, lo._children[i], temporary)) {
-          canDelete = false;
-        } else {
+      _stripes[stripe].lock();
+    }
+  }
 
-          // because the deleting shifts the array
-          i--;
-          limit--;
-        }
-      }
-      if (canDelete) {
-        if (lo._owner == null) {
-          if (temporary) {
-            lo.removeTempLockedObject();
-          } else {
-            lo.removeLockedObject();
-          }
-          return true;
-        } else {
-          return false;
-        }
-      } else {
-        return false;
+  private void releaseStripes(String path) {
+    int stripe = getStripe(path);
+    if (stripe == -1) {
+      for (int i = STRIPES - 1; i >= 0; i--) {
+        _stripes[i].unlock();
       }
+    } else {
+      _stripes[stripe].unlock();
     }
   }
 
@@ -155,10 +155,16 @@ public class DoPropfind extends AbstractMethod {
 
         generatedXML.sendData();
       } catch (AccessDeniedException e) {
-        resp.sendError(WebdavStatus.SC_FORBIDDEN);
+        if (!resp.isCommitted()) {
+          // the multistatus is streamed, so an error can only be sent before
+          // the first part of it is committed
+          resp.sendError(WebdavStatus.SC_FORBIDDEN);
+        }
       } catch (WebdavException e) {
         LOG.warn("Sending internal error!");
-        resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+        if (!resp.isCommitted()) {
+          resp.sendError(WebdavStatus.SC_INTERNAL_SERVER_ERROR);
+        }
       } catch (ServletException e) {
         e.printStackTrace(); // To change body of catch statement use
         // File | Settings | File Templates.
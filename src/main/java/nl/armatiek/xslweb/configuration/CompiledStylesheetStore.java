@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.sf.saxon.Version;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+
+/**
+ * Persistent store of compiled XSLT stylesheets (stylesheet export files) under the 
+ * home directory of a webapp. Entries are keyed by a hash over the contents of the 
+ * stylesheet and all its (transitively) included and imported modules, so a changed 
+ * module automatically invalidates the stored export.
+ */
+public class CompiledStylesheetStore {
+  
+  private static final Logger logger = LoggerFactory.getLogger(CompiledStylesheetStore.class);
+  
+  private final File storeDir;
+  private volatile boolean exportSupported = true;
+  
+  public CompiledStylesheetStore(File storeDir) {
+    this.storeDir = storeDir;
+  }
+  
+  /**
+   * Loads the compiled stylesheet for the stylesheet file from the store, or returns null 
+   * when the store contains no (current) export for it.
+   */
+  public XsltExecutable load(File xslFile, XsltCompiler compiler) {
+    try {
+      File sefFile = getSefFile(xslFile);
+      if (!sefFile.isFile()) {
+        return null;
+      }
+      XsltExecutable executable = compiler.loadExecutablePackage(sefFile.toURI());
+      logger.info("Loaded compiled XSLT stylesheet \"" + xslFile.getAbsolutePath() + "\" from store");
+      return executable;
+    } catch (Exception e) {
+      logger.warn("Could not load compiled XSLT stylesheet \"" + xslFile.getAbsolutePath() + "\" from store", e);
+      return null;
+    }
+  }
+  
+  /**
+   * Writes the export of the compiled stylesheet to the store, replacing exports of 
+   * previous versions of the same stylesheet.
+   */
+  public void save(File xslFile, XsltExecutable executable) {
+    if (!exportSupported) {
+      return;
+    }
+    try {
+      File sefFile = getSefFile(xslFile);
+      FileUtils.forceMkdir(storeDir);
+      File tempFile = new File(storeDir, sefFile.getName() + ".tmp");
+      try (OutputStream os = new FileOutputStream(tempFile)) {
+        executable.export(os);
+      } catch (SaxonApiException | UnsupportedOperationException e) {
+        /* Exporting compiled stylesheets requires a Saxon edition that supports it: */
+        exportSupported = false;
+        FileUtils.deleteQuietly(tempFile);
+        logger.warn("Compiled stylesheet store disabled, could not export stylesheet: " + e.getMessage());
+        return;
+      }
+      String prefix = getPathHash(xslFile) + "-";
+      File[] oldFiles = storeDir.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".sef"));
+      if (oldFiles != null) {
+        for (File oldFile : oldFiles) {
+          FileUtils.deleteQuietly(oldFile);
+        }
+      }
+      if (!tempFile.renameTo(sefFile)) {
+        FileUtils.deleteQuietly(tempFile);
+      }
+    } catch (Exception e) {
+      logger.warn("Could not save compiled XSLT stylesheet \"" + xslFile.getAbsolutePath() + "\" to store", e);
+    }
+  }
+  
+  private File getSefFile(File xslFile) throws Exception {
+    return new File(storeDir, getPathHash(xslFile) + "-" + getContentHash(xslFile) + ".sef");
+  }
+  
+  private String getPathHash(File xslFile) {
+    return DigestUtils.sha1Hex(xslFile.getAbsolutePath());
+  }
+  
+  private String getContentHash(File xslFile) throws Exception {
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    digest.update(Version.getProductVersion().getBytes("UTF-8"));
+    List<File> modules = new ArrayList<File>();
+    collectModules(xslFile.getAbsoluteFile(), modules, new HashSet<File>());
+    for (File module : modules) {
+      digest.update(module.getPath().getBytes("UTF-8"));
+      digest.update(FileUtils.readFileToByteArray(module));
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+  
+  private void collectModules(File file, List<File> modules, Set<File> visited) throws Exception {
+    if (!visited.add(file) || !file.isFile()) {
+      return;
+    }
+    modules.add(file);
+    for (File module : getIncludedModules(file)) {
+      collectModules(module, modules, visited);
+    }
+  }
+  
+  /* Returns the local stylesheet modules that are directly included or imported by file */
+  static List<File> getIncludedModules(File file) throws Exception {
+    List<String> hrefs = new ArrayList<String>();
+    SAXParserFactory spf = SAXParserFactory.newInstance();
+    spf.setNamespaceAware(true);
+    spf.newSAXParser().parse(file, new DefaultHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes atts) {
+        if (Definitions.NAMESPACEURI_XSLT.equals(uri) && (localName.equals("include") || localName.equals("import"))) {
+          String href = atts.getValue("href");
+          if (href != null) {
+            hrefs.add(href);
+          }
+        }
+      }
+    });
+    List<File> modules = new ArrayList<File>();
+    URI base = file.toURI();
+    for (String href : hrefs) {
+      URI moduleURI = base.resolve(href);
+      if ("file".equals(moduleURI.getScheme())) {
+        modules.add(new File(moduleURI));
+      }
+    }
+    return modules;
+  }
+  
+}
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +28,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +36,8 @@ import java.util.concurrent.TimeUnit;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.NoInitialContextException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -56,9 +60,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import eu.medsea.mimeutil.MimeUtil;
-import net.sf.saxon.om.NamePool;
-import net.sf.saxon.tree.util.DocumentNumberAllocator;
 import nl.armatiek.xslweb.error.XSLWebException;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
 import nl.armatiek.xslweb.utils.XMLUtils;
 import nl.armatiek.xslweb.utils.XSLWebUtils;
 
@@ -74,7 +77,9 @@ public class Context {
   
   private static Context _instance;
   
-  private Map<String, WebApp> webApps = Collections.synchronizedMap(new HashMap<String, WebApp>());
+  private Map<String, WebApp> webApps = new ConcurrentHashMap<String, WebApp>();
+  private final Object reloadLock = new Object();
+  private Map<String, WebAppMetrics> metrics = new ConcurrentHashMap<String, WebAppMetrics>();
   private Map<String, ArrayList<Attribute>> attributes = Collections.synchronizedMap(new HashMap<String, ArrayList<Attribute>>());
   private ServletContext servletContext;
   private String classPath;
@@ -85,6 +90,7 @@ public class Context {
   private boolean trustAllCerts;
   private boolean webDAVEnable;
   private boolean debugEnable;
+  private boolean metricsEnable;
   private File webDAVRoot;
   private String contextPath;
   private File webInfDir; 
@@ -92,6 +98,8 @@ public class Context {
   private File queueDir;
   private ScheduledExecutorService queueCleanupScheduler;
   private volatile boolean isOpen = false;
+  private int reloadDrainTimeout;
+  private int scriptEnginePoolSize;
   private Date startTime;
   
   private Context() {
@@ -168,6 +176,12 @@ public class Context {
       app.close();      
     }
     
+    logger.info("Unregistering metrics MBeans ...");
+    for (WebAppMetrics webAppMetrics : metrics.values()) {
+      unregisterMetrics(webAppMetrics);
+    }
+    metrics.clear();
+    
     logger.info("Unregistering MIME detectors ...");
     MimeUtil.unregisterMimeDetector("eu.medsea.mimeutil.detector.ExtensionMimeDetector");
     MimeUtil.unregisterMimeDetector("eu.medsea.mimeutil.detector.MagicMimeMimeDetector");
@@ -251,7 +265,10 @@ public class Context {
     }
     this.parserHardening = Boolean.parseBoolean(this.properties.getProperty(Definitions.PROPERTYNAME_PARSER_HARDENING, "false"));
     this.debugEnable = Boolean.parseBoolean(this.properties.getProperty(Definitions.PROPERTYNAME_DEBUG_ENABLE, "false"));
+    this.metricsEnable = Boolean.parseBoolean(this.properties.getProperty(Definitions.PROPERTYNAME_METRICS_ENABLE, "false"));
     this.webDAVEnable = Boolean.parseBoolean(this.properties.getProperty(Definitions.PROPERTYNAME_WEBDAV_ENABLE, "false"));
+    this.reloadDrainTimeout = Integer.parseInt(this.properties.getProperty(Definitions.PROPERTYNAME_RELOAD_DRAIN_TIMEOUT, "30"));
+    this.scriptEnginePoolSize = Integer.parseInt(this.properties.getProperty(Definitions.PROPERTYNAME_SCRIPT_POOL_SIZE, "8"));
     this.webDAVRoot = new File(this.properties.getProperty(Definitions.PROPERTYNAME_WEBDAV_ROOT, this.getHomeDir().getAbsolutePath()));
     if (this.webDAVEnable && !this.webDAVRoot.isDirectory()) {
       logger.error("WebDAV root directory {} not found or is not a directory", this.webDAVRoot.getAbsolutePath());
@@ -281,52 +298,62 @@ public class Context {
     if (!webAppDefFile.isFile()) {
       return;
     }
-    synchronized(webApps) {
+    /* Lookups in webApps are not blocked during a reload, so requests on the existing webapp 
+     * (including nested requests) can finish while it is drained: */
+    synchronized(reloadLock) {
       String webAppName = webAppDefFile.getParentFile().getName();             
-      WebApp webApp = webApps.get(webAppName);
-      Map<String, ArrayList<Attribute>> attributes = null;
-      NamePool namePool = null;
-      DocumentNumberAllocator documentNumberAllocator = null;
-      if (webApp != null) {
-        logger.info(String.format("Stopping existing webapp \"%s\" ...", webAppName));
-        try {
-          attributes = webApp.getAttributes();
-          // Store the namepool and documentallocator so they can be set to the new configuration. 
-          // Otherwisethe  new and old configurations are not compatible, what could lead to problems 
-          // with cached nodes etc:
-          namePool = webApp.getConfiguration().getNamePool();
-          documentNumberAllocator = webApp.getConfiguration().getDocumentNumberAllocator();
-          webApp.close();
-          // webApps.remove(webAppName);
-        } catch (Exception e) {
-          logger.error(String.format("Error stopping existing webapp \"%s\"", webAppName), e);
-        }
-        logger.info("Executing handler for webapp-reload event ...");
-        webApp.executeEvent(Definitions.EVENTNAME_WEBAPPRELOAD);
-      }
+      WebApp oldWebApp = webApps.get(webAppName);
       if (!createNew) {
+        if (oldWebApp != null) {
+          stopWebApp(oldWebApp, webAppName);
+        }
         return;
       }
+      /* When possible, the new webapp is opened (and warmed up) next to the existing one, 
+       * so the existing webapp can keep handling requests until the new one is swapped in: */
+      boolean blueGreen = oldWebApp != null && oldWebApp.supportsBlueGreenReload();
+      if (oldWebApp != null && !blueGreen) {
+        stopWebApp(oldWebApp, webAppName);
+      }
       logger.info(String.format("Creating new webapp \"%s\" ...", webAppName));
+      WebApp webApp;
       try {       
         webApp = new WebApp(webAppDefFile);
-        if (attributes != null) {
-          webApp.setAttributes(attributes);
-        }
-        if (namePool != null) {
-          webApp.getConfiguration().setNamePool(namePool);
-        }
-        if (documentNumberAllocator != null) {
-          webApp.getConfiguration().setDocumentNumberAllocator(documentNumberAllocator);
+        if (oldWebApp != null) {
+          webApp.setAttributes(oldWebApp.getAttributes());
+          // Use the namepool and documentallocator of the existing webapp in the new configuration. 
+          // Otherwise the new and old configurations are not compatible, what could lead to problems 
+          // with cached nodes etc:
+          webApp.getConfiguration().setNamePool(oldWebApp.getConfiguration().getNamePool());
+          webApp.getConfiguration().setDocumentNumberAllocator(oldWebApp.getConfiguration().getDocumentNumberAllocator());
         }
         webApp.open();
-        webApps.put(webAppName, webApp);
       } catch (Exception e) {
         logger.error(String.format("Error creating new webapp \"%s\"", webAppName), e);
+        if (blueGreen) {
+          logger.info(String.format("Existing webapp \"%s\" stays active", webAppName));
+        }
+        return;
       }      
+      webApps.put(webAppName, webApp);
+      if (blueGreen) {
+        stopWebApp(oldWebApp, webAppName);
+      }
     }    
   }
   
+  private void stopWebApp(WebApp webApp, String webAppName) {
+    logger.info(String.format("Stopping existing webapp \"%s\" ...", webAppName));
+    try {
+      webApp.drain(reloadDrainTimeout * 1000L);
+      webApp.close();
+    } catch (Exception e) {
+      logger.error(String.format("Error stopping existing webapp \"%s\"", webAppName), e);
+    }
+    logger.info("Executing handler for webapp-reload event ...");
+    webApp.executeEvent(Definitions.EVENTNAME_WEBAPPRELOAD);
+  }
+  
   private void initFileAlterationObservers() {
     File webAppsDir = new File(homeDir, "webapps");        
     IOFileFilter webAppFiles = FileFilterUtils.and(FileFilterUtils.fileFileFilter(), FileFilterUtils.nameFileFilter("webapp.xml"));    
@@ -409,6 +436,14 @@ public class Context {
     return this.debugEnable;
   }
   
+  public boolean getMetricsEnable() {
+    return metricsEnable;
+  }
+
+  public int getScriptEnginePoolSize() {
+    return scriptEnginePoolSize;
+  }
+  
   public boolean getWebDAVEnable() {
     return this.webDAVEnable;
   }
@@ -435,6 +470,52 @@ public class Context {
     return webApp;    
   }
   
+  /**
+   * Returns the metrics of the webapp with the specified name. The metrics are shared 
+   * by all instances of the webapp that are created during reloads, and are registered 
+   * as MBean on the platform MBean server when first asked for.
+   */
+  public WebAppMetrics getMetrics(String webAppName) {
+    return metrics.computeIfAbsent(webAppName, name -> {
+      WebAppMetrics webAppMetrics = new WebAppMetrics(name);
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = getMetricsObjectName(name);
+        if (server.isRegistered(objectName)) {
+          server.unregisterMBean(objectName);
+        }
+        server.registerMBean(webAppMetrics, objectName);
+      } catch (Exception e) {
+        logger.warn(String.format("Could not register metrics MBean of webapp \"%s\"", name), e);
+      }
+      return webAppMetrics;
+    });
+  }
+  
+  public Collection<WebAppMetrics> getMetrics() {
+    return metrics.values();
+  }
+  
+  private ObjectName getMetricsObjectName(String webAppName) throws Exception {
+    String name = "nl.armatiek.xslweb:type=Metrics,webapp=" + ObjectName.quote(webAppName);
+    if (StringUtils.isNotEmpty(contextPath)) {
+      name += ",context=" + ObjectName.quote(contextPath);
+    }
+    return new ObjectName(name);
+  }
+  
+  private void unregisterMetrics(WebAppMetrics webAppMetrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = getMetricsObjectName(webAppMetrics.getWebAppName());
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (Exception e) {
+      logger.warn(String.format("Could not unregister metrics MBean of webapp \"%s\"", webAppMetrics.getWebAppName()), e);
+    }
+  }
+  
   public Collection<WebApp> getWebApps() {
     return webApps.values();
   }
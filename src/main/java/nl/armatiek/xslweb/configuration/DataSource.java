@@ -35,6 +35,7 @@ public class DataSource {
   private String jdbcUrl;
   private String username;  
   private String password;
+  private Integer statementCacheSize;
   private Properties properties;
   
   public DataSource(Element dataSourceElem) {
@@ -43,6 +44,10 @@ public class DataSource {
     this.jdbcUrl = XMLUtils.getValueOfChildElementByLocalName(dataSourceElem, "jdbc-url");
     this.username = XMLUtils.getValueOfChildElementByLocalName(dataSourceElem, "username");
     this.password = XMLUtils.getValueOfChildElementByLocalName(dataSourceElem, "password");        
+    String cacheSize = XMLUtils.getValueOfChildElementByLocalName(dataSourceElem, "statement-cache-size");
+    if (cacheSize != null) {
+      this.statementCacheSize = Integer.valueOf(cacheSize.trim());
+    }
     Element propElem = XMLUtils.getFirstChildElementByLocalName(dataSourceElem, "property");
     if (propElem != null) {
       this.properties = new Properties();
@@ -73,6 +78,14 @@ public class DataSource {
     return password;
   }
 
+  /**
+   * Returns the maximum number of prepared statements that are cached per pooled 
+   * connection, or null when the c3p0 default must be used.
+   */
+  public Integer getStatementCacheSize() {
+    return statementCacheSize;
+  }
+  
   public Properties getProperties() {
     return properties;
   }
@@ -126,17 +126,19 @@ public class Definitions {
   
   public final static String ATTRNAME_WEBAPP                   = "xslweb.webapp";
   public final static String ATTRNAME_REQUESTXML               = "xslweb.requestxml";
-  public final static String ATTRNAME_PIPELINEHANDLER          = "xslweb.pipelinehandler";
+  public final static String ATTRNAME_PIPELINEPLAN             = "xslweb.pipelineplan";
   public final static String ATTRNAME_XSSFILTERING             = "xslweb.xssfiltering";
   public final static String ATTRNAME_TEMPFILES                = "xslweb.tempfiles";
   public final static String ATTRNAME_ISJOBREQUEST             = "xslweb.isjobrequest";
   public final static String ATTRNAME_ISNESTEDREQUEST          = "xslweb.isnestedrequest";
+  public final static String ATTRNAME_NESTEDRESULT             = "xslweb.nestedresult";
   // public final static String ATTRNAME_DEBUGCLIENT              = "xslweb.debugclient";
   
   public final static String PARAMNAME_TRACE_BASIC             = "xslweb.trace.basic";
   public final static String PARAMNAME_TRACE_TIME              = "xslweb.trace.time";
   
   public final static String CACHENAME_RESPONSECACHINGFILTER   = "XSLWebResponseCachingFilter";
+  public final static String CACHENAME_PIPELINEPLANS           = "XSLWebPipelinePlans";
   
   public final static String SCHEME_XSLWEB                     = "xslweb";
   
@@ -145,6 +147,9 @@ public class Definitions {
   public final static String PROPERTYNAME_DEBUG_ENABLE         = "xslweb.debug.enable";
   public final static String PROPERTYNAME_WEBDAV_ENABLE        = "xslweb.webdav.enable";
   public final static String PROPERTYNAME_WEBDAV_ROOT          = "xslweb.webdav.root";
+  public final static String PROPERTYNAME_RELOAD_DRAIN_TIMEOUT = "xslweb.reload.draintimeout";
+  public final static String PROPERTYNAME_METRICS_ENABLE       = "xslweb.metrics.enable";
+  public final static String PROPERTYNAME_SCRIPT_POOL_SIZE     = "xslweb.script.poolsize";
   
   public final static QName EVENTNAME_WEBAPPOPEN              = new QName("event", NAMESPACEURI_XSLWEB_EVENT, "webapp-open");
   public final static QName EVENTNAME_WEBAPPCLOSE             = new QName("event", NAMESPACEURI_XSLWEB_EVENT, "webapp-close");
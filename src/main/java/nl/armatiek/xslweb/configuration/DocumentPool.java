@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Element;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.TreeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyTree;
+
+/**
+ * Pool of parsed XML files of a webapp (document-pool in webapp.xml) that are loaded
+ * using the functions doc() and document(). The parsed documents are immutable and 
+ * shared by all transformations; a document is parsed again when the modification time 
+ * or size of its file has changed. Entries are evicted least recently used when their 
+ * estimated total memory size exceeds the maximum size.
+ */
+public class DocumentPool {
+  
+  private final long maxSize;
+  private final long maxEntrySize;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private long size;
+  
+  public DocumentPool(Element poolElem) {
+    this.maxSize = getLong(poolElem, "max-size", 64) * 1024L * 1024L;
+    this.maxEntrySize = getLong(poolElem, "max-entry-size", 16) * 1024L * 1024L;
+  }
+  
+  private long getLong(Element poolElem, String name, long defaultValue) {
+    String value = StringUtils.trimToNull(poolElem.getAttribute(name));
+    return (value != null) ? Long.parseLong(value) : defaultValue;
+  }
+  
+  /**
+   * Returns the document node of the parsed <code>file</code>, parsing it when it is not 
+   * pooled yet or has changed, or null when the file does not exist or is too large to 
+   * be pooled.
+   */
+  public NodeInfo get(File file, String systemId, WebApp webApp) throws XPathException {
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        if (entry.lastModified == lastModified && entry.length == length) {
+          webApp.getMetrics().countCacheRequest("document", true);
+          return entry.document;
+        }
+        remove(key);
+      }
+    }
+    if (lastModified == 0L || length > maxEntrySize) {
+      return null;
+    }
+    webApp.getMetrics().countCacheRequest("document", false);
+    TreeInfo treeInfo = webApp.getConfiguration().buildDocumentTree(new StreamSource(systemId));
+    Entry entry = new Entry(treeInfo.getRootNode(), lastModified, length, getMemorySize(treeInfo, length));
+    if (entry.memorySize > maxSize) {
+      return entry.document;
+    }
+    synchronized (this) {
+      remove(key);
+      entries.put(key, entry);
+      size += entry.memorySize;
+      Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+      while (size > maxSize && iter.hasNext()) {
+        size -= iter.next().getValue().memorySize;
+        iter.remove();
+      }
+    }
+    return entry.document;
+  }
+  
+  /* Estimates the memory occupied by a parsed document */
+  private long getMemorySize(TreeInfo treeInfo, long fileLength) {
+    if (treeInfo instanceof TinyTree) {
+      TinyTree tree = (TinyTree) treeInfo;
+      return 24L * (tree.getNumberOfNodes() + tree.getNumberOfAttributes()) 
+          + 2L * tree.getCharacterBuffer().length();
+    }
+    return 4 * fileLength;
+  }
+  
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      size -= entry.memorySize;
+    }
+  }
+  
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+  
+  private static class Entry {
+    
+    private final NodeInfo document;
+    private final long lastModified;
+    private final long length;
+    private final long memorySize;
+    
+    private Entry(NodeInfo document, long lastModified, long length, long memorySize) {
+      this.document = document;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.memorySize = memorySize;
+    }
+    
+  }
+  
+}
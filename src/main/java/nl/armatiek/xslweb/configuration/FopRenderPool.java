@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Bounded pool of threads on which the FOP serializer renders the documents of one 
+ * fop-config, so expensive documents cannot tie up the request threads of the 
+ * container. Requests that do not fit in the queue are rejected.
+ */
+public class FopRenderPool {
+  
+  private final ThreadPoolExecutor executor;
+  private final int timeout;
+  private final int retryAfter;
+  
+  public FopRenderPool(String webAppName, Element fopConfigElem) {
+    String name = fopConfigElem.getAttribute("name");
+    int threads = getInteger(fopConfigElem, "threads", 0);
+    int queueSize = getInteger(fopConfigElem, "queue-size", threads * 2);
+    this.timeout = getInteger(fopConfigElem, "timeout", 120);
+    this.retryAfter = getInteger(fopConfigElem, "retry-after", 10);
+    final AtomicInteger threadNumber = new AtomicInteger(1);
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "xslweb-fop-" + webAppName + "-" + name + "-" + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+        new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), threadFactory);
+  }
+  
+  /**
+   * Returns the number of render threads specified on the fop-config element, 0 
+   * meaning that documents are rendered on the request thread.
+   */
+  public static int getThreads(Element fopConfigElem) {
+    return getInteger(fopConfigElem, "threads", 0);
+  }
+  
+  private static int getInteger(Element elem, String name, int defaultValue) {
+    String value = StringUtils.trimToNull(elem.getAttribute(name));
+    return (value != null) ? Integer.parseInt(value) : defaultValue;
+  }
+  
+  /**
+   * Returns true when all threads are busy and the queue is full, so a new render 
+   * request would be rejected.
+   */
+  public boolean isSaturated() {
+    return executor.getQueue().remainingCapacity() == 0 && executor.getActiveCount() >= executor.getMaximumPoolSize();
+  }
+  
+  public <T> Future<T> submit(Callable<T> task) throws RejectedExecutionException {
+    return executor.submit(task);
+  }
+  
+  /**
+   * Returns the maximum time in seconds a request waits for its document to be 
+   * rendered (including the time in the queue).
+   */
+  public int getTimeout() {
+    return timeout;
+  }
+  
+  /**
+   * Returns the number of seconds sent in the Retry-After header of rejected requests.
+   */
+  public int getRetryAfter() {
+    return retryAfter;
+  }
+  
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+  
+}
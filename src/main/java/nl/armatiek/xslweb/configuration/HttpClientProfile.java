@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import nl.armatiek.xslweb.saxon.functions.httpclient.SharedCacheInterceptor;
+import nl.armatiek.xslweb.saxon.functions.httpclient.TrustAllCerts;
+import nl.armatiek.xslweb.utils.XMLUtils;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Definition of an outbound HTTP client profile (http-client in webapp.xml) that can 
+ * be used by the extension function http:send-request. Every profile has its own 
+ * connection pool and dispatcher.
+ */
+public class HttpClientProfile {
+  
+  private static final Logger logger = LoggerFactory.getLogger(HttpClientProfile.class);
+  
+  private String name;
+  private int maxIdleConnections;
+  private int keepAlive;
+  private int maxRequests;
+  private int maxRequestsPerHost;
+  private int connectTimeout;
+  private int readTimeout;
+  private int writeTimeout;
+  private int callTimeout;
+  private boolean followRedirects;
+  private String proxyHost;
+  private int proxyPort;
+  private boolean trustAllCerts;
+  private boolean http2;
+  private long cacheSize;
+  private File cacheDir;
+  private int treeCacheSize;
+  
+  /**
+   * Creates the default profile, that is used when no profile is specified.
+   */
+  public HttpClientProfile() {
+    this.maxIdleConnections = 5;
+    this.keepAlive = 300;
+    this.maxRequests = 64;
+    this.maxRequestsPerHost = 5;
+    this.connectTimeout = -1;
+    this.readTimeout = -1;
+    this.writeTimeout = -1;
+    this.callTimeout = -1;
+    this.followRedirects = true;
+    this.proxyPort = 8080;
+    this.http2 = true;
+  }
+  
+  /**
+   * Creates a profile from a http-client element in webapp.xml. A relative cache-dir 
+   * is resolved against the home directory of the webapp.
+   */
+  public HttpClientProfile(Element clientElem, File homeDir, String webAppName) {
+    this.name = XMLUtils.getValueOfChildElementByLocalName(clientElem, "name");
+    this.maxIdleConnections = getInteger(clientElem, "max-idle-connections", 5);
+    this.keepAlive = getInteger(clientElem, "keep-alive", 300);
+    this.maxRequests = getInteger(clientElem, "max-requests", 64);
+    this.maxRequestsPerHost = getInteger(clientElem, "max-requests-per-host", 5);
+    this.connectTimeout = getInteger(clientElem, "connect-timeout", -1);
+    this.readTimeout = getInteger(clientElem, "read-timeout", -1);
+    this.writeTimeout = getInteger(clientElem, "write-timeout", -1);
+    this.callTimeout = getInteger(clientElem, "call-timeout", -1);
+    this.followRedirects = XMLUtils.getBooleanValue(XMLUtils.getValueOfChildElementByLocalName(clientElem, "follow-redirects"), true);
+    this.proxyHost = XMLUtils.getValueOfChildElementByLocalName(clientElem, "proxy-host");
+    this.proxyPort = getInteger(clientElem, "proxy-port", 8080);
+    this.trustAllCerts = XMLUtils.getBooleanValue(XMLUtils.getValueOfChildElementByLocalName(clientElem, "trust-all-certs"), false);
+    this.http2 = XMLUtils.getBooleanValue(XMLUtils.getValueOfChildElementByLocalName(clientElem, "http2"), true);
+    this.cacheSize = getInteger(clientElem, "cache-size", 0) * 1024L * 1024L;
+    this.treeCacheSize = getInteger(clientElem, "tree-cache-size", 100);
+    String cacheDirValue = StringUtils.trimToNull(XMLUtils.getValueOfChildElementByLocalName(clientElem, "cache-dir"));
+    File parentDir;
+    if (cacheDirValue != null) {
+      parentDir = new File(cacheDirValue);
+      if (!parentDir.isAbsolute()) {
+        parentDir = new File(homeDir, cacheDirValue);
+      }
+    } else {
+      parentDir = new File(FileUtils.getTempDirectory(), "xslweb-http-cache" + File.separatorChar + webAppName);
+    }
+    /* Every instance of the webapp gets its own cache directory, because during a reload
+     * the old and the new instance are open at the same time: */
+    this.cacheDir = new File(parentDir, name + "-" + UUID.randomUUID().toString());
+  }
+  
+  private int getInteger(Element clientElem, String localName, int defaultValue) {
+    String value = XMLUtils.getValueOfChildElementByLocalName(clientElem, localName);
+    return XMLUtils.getIntegerValue((value != null) ? value.trim() : null, defaultValue);
+  }
+  
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * Returns the maximum number of parsed response bodies that are kept in memory, or 0 
+   * when the profile has no response cache.
+   */
+  public int getTreeCacheSize() {
+    return (cacheSize > 0) ? treeCacheSize : 0;
+  }
+  
+  /**
+   * Builds the OkHttpClient of this profile. Timeouts that are not specified keep 
+   * the OkHttp defaults.
+   */
+  public OkHttpClient buildClient() {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxRequests);
+    dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+        .connectionSpecs(Arrays.asList(ConnectionSpec.MODERN_TLS, ConnectionSpec.COMPATIBLE_TLS, ConnectionSpec.CLEARTEXT))
+        .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive, TimeUnit.SECONDS))
+        .dispatcher(dispatcher)
+        .followRedirects(followRedirects)
+        .followSslRedirects(followRedirects);
+    if (connectTimeout >= 0) {
+      builder.connectTimeout(connectTimeout, TimeUnit.SECONDS);
+    }
+    if (readTimeout >= 0) {
+      builder.readTimeout(readTimeout, TimeUnit.SECONDS);
+    }
+    if (writeTimeout >= 0) {
+      builder.writeTimeout(writeTimeout, TimeUnit.SECONDS);
+    }
+    if (callTimeout >= 0) {
+      builder.callTimeout(callTimeout, TimeUnit.SECONDS);
+    }
+    if (proxyHost != null) {
+      builder.proxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
+    }
+    if (!http2) {
+      builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+    }
+    if (trustAllCerts || Context.getInstance().getTrustAllCerts()) {
+      TrustAllCerts.setTrustAllCerts(builder);
+    }
+    if (cacheSize > 0) {
+      /* The cache is shared by all users of the webapp: */
+      builder.cache(new Cache(cacheDir, cacheSize));
+      builder.addNetworkInterceptor(new SharedCacheInterceptor());
+    }
+    return builder.build();
+  }
+  
+  /**
+   * Shuts down the dispatcher, evicts the idle connections and deletes the response 
+   * cache of a client built by {@link #buildClient()}.
+   */
+  public static void closeClient(OkHttpClient client) {
+    client.dispatcher().executorService().shutdown();
+    client.connectionPool().evictAll();
+    Cache cache = client.cache();
+    if (cache != null) {
+      try {
+        cache.delete();
+      } catch (IOException e) {
+        logger.warn("Error deleting HTTP response cache \"" + cache.directory().getAbsolutePath() + "\"", e);
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Bounded pool of script engines of one named script engine instance. Script engines 
+ * are not safe for concurrent use, so every request borrows its own engine. Scripts are 
+ * compiled once per engine, and scripts that are registered as init scripts of the 
+ * instance are evaluated on every engine before it is handed out.
+ */
+public class ScriptEnginePool {
+  
+  private static final int MAX_SCRIPTS = 256;
+  private static final long BORROW_TIMEOUT = 30; /* seconds */
+  
+  private final String instanceName;
+  private final String engineName;
+  private final Map<String, Object> extraBindings;
+  private final Semaphore permits;
+  private final ConcurrentLinkedDeque<ScriptEngine> idleEngines = new ConcurrentLinkedDeque<ScriptEngine>();
+  private final Map<ScriptEngine, EngineState> engineStates = new ConcurrentHashMap<ScriptEngine, EngineState>();
+  private final Set<ScriptEngine> borrowedEngines = ConcurrentHashMap.newKeySet();
+  private final Set<String> initScripts = new LinkedHashSet<String>();
+  
+  public ScriptEnginePool(String instanceName, String engineName, Map<String, Object> extraBindings, int maxSize) {
+    this.instanceName = instanceName;
+    this.engineName = engineName;
+    this.extraBindings = extraBindings;
+    this.permits = new Semaphore(Math.max(maxSize, 1), true);
+  }
+  
+  /**
+   * Borrows a script engine from the pool, waiting for one to be released when all 
+   * engines are in use. The engine must be returned using {@link #release(ScriptEngine)}.
+   */
+  public ScriptEngine borrow() throws InterruptedException, ScriptException {
+    if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.SECONDS)) {
+      throw new XSLWebException("No script engine of instance \"" + instanceName + "\" became available within " + BORROW_TIMEOUT + " seconds");
+    }
+    ScriptEngine engine = idleEngines.pollFirst();
+    try {
+      if (engine == null) {
+        engine = createEngine();
+      }
+      for (String script : getInitScripts()) {
+        EngineState state = engineStates.get(engine);
+        if (!state.loadedScripts.contains(script)) {
+          eval(engine, state, script);
+        }
+      }
+      borrowedEngines.add(engine);
+      return engine;
+    } catch (ScriptException | RuntimeException e) {
+      if (engine != null) {
+        idleEngines.offerFirst(engine);
+      }
+      permits.release();
+      throw e;
+    }
+  }
+  
+  /**
+   * Returns a borrowed script engine to the pool. Releasing an engine that is not 
+   * borrowed from this pool (or is already released) is ignored.
+   */
+  public void release(ScriptEngine engine) {
+    if (!borrowedEngines.remove(engine)) {
+      return;
+    }
+    idleEngines.offerFirst(engine);
+    permits.release();
+  }
+  
+  /**
+   * Returns true if the specified engine was created by this pool.
+   */
+  public boolean owns(ScriptEngine engine) {
+    return engineStates.containsKey(engine);
+  }
+  
+  /**
+   * Evaluates a script on a borrowed engine, compiling it only the first time it is 
+   * evaluated on that engine. When init is true the script is registered as init 
+   * script and is also evaluated on the other engines of the instance before these 
+   * are handed out.
+   */
+  public Object evaluate(ScriptEngine engine, String script, boolean init) throws ScriptException {
+    Object result = eval(engine, engineStates.get(engine), script);
+    if (init) {
+      synchronized (initScripts) {
+        if (initScripts.add(script) && initScripts.size() > MAX_SCRIPTS) {
+          Iterator<String> iter = initScripts.iterator();
+          iter.next();
+          iter.remove();
+        }
+      }
+    }
+    return result;
+  }
+  
+  private List<String> getInitScripts() {
+    synchronized (initScripts) {
+      return new ArrayList<String>(initScripts);
+    }
+  }
+  
+  private Object eval(ScriptEngine engine, EngineState state, String script) throws ScriptException {
+    Object result;
+    if (engine instanceof Compilable) {
+      CompiledScript compiledScript = state.compiledScripts.get(script);
+      if (compiledScript == null) {
+        compiledScript = ((Compilable) engine).compile(script);
+        state.compiledScripts.put(script, compiledScript);
+      }
+      result = compiledScript.eval();
+    } else {
+      result = engine.eval(script);
+    }
+    state.loadedScripts.add(script);
+    return result;
+  }
+  
+  private ScriptEngine createEngine() {
+    System.setProperty("polyglot.engine.WarnInterpreterOnly", "false");
+    ScriptEngine engine = new ScriptEngineManager().getEngineByName(engineName);
+    if (engine == null) {
+      throw new XSLWebException("Script engine \"" + engineName + "\" not available");
+    }
+    if (engine.getClass().getName().endsWith("GraalJSScriptEngine")) {
+      Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+      bindings.put("polyglot.js.allowHostAccess", true);
+      bindings.put("polyglot.js.allowHostClassLookup", (Predicate<String>) s -> true);
+      if (extraBindings != null) {
+        bindings.putAll(extraBindings);
+      }
+    }
+    engineStates.put(engine, new EngineState());
+    return engine;
+  }
+  
+  /* Only accessed by the thread that has borrowed the engine */
+  private static class EngineState {
+    
+    private final Set<String> loadedScripts = new HashSet<String>();
+    
+    @SuppressWarnings("serial")
+    private final Map<String, CompiledScript> compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+        if (size() > MAX_SCRIPTS) {
+          loadedScripts.remove(eldest.getKey());
+          return true;
+        }
+        return false;
+      }
+    };
+    
+  }
+  
+}
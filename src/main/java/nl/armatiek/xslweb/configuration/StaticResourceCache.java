@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Element;
+
+import nl.armatiek.xslweb.utils.XMLUtils;
+
+/**
+ * In-memory cache of small static resources of a webapp (resources/cache in webapp.xml), 
+ * together with their compressed variants. Precompressed siblings (<code>.gz</code> 
+ * and <code>.br</code>) are used when they are present; otherwise compressible 
+ * resources are gzipped once. Entries are evicted least recently used when the total
+ * size exceeds the maximum size and are invalidated by the file alteration monitor of 
+ * the webapp.
+ */
+public class StaticResourceCache {
+  
+  private static final int MIN_COMPRESS_SIZE = 256;
+  
+  private final long maxSize;
+  private final long maxEntrySize;
+  private final boolean compress;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private long size;
+  
+  public StaticResourceCache(Element cacheElem) {
+    this.maxSize = getLong(cacheElem, "max-size", 32) * 1024L * 1024L;
+    this.maxEntrySize = getLong(cacheElem, "max-entry-size", 512) * 1024L;
+    this.compress = XMLUtils.getBooleanValue(cacheElem.getAttribute("compress"), true);
+  }
+  
+  private long getLong(Element cacheElem, String name, long defaultValue) {
+    String value = StringUtils.trimToNull(cacheElem.getAttribute(name));
+    return (value != null) ? Long.parseLong(value) : defaultValue;
+  }
+  
+  /**
+   * Returns the cached entry of <code>file</code>, loading it when it is not cached yet, 
+   * or null when the file does not exist or is too large to be cached.
+   */
+  public Entry get(File file, boolean compressible) throws IOException {
+    String key = file.getAbsolutePath();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    if (!file.isFile() || file.length() > maxEntrySize) {
+      return null;
+    }
+    Entry entry = load(file, compressible);
+    synchronized (this) {
+      Entry existing = entries.put(key, entry);
+      if (existing != null) {
+        size -= existing.getSize();
+      }
+      size += entry.getSize();
+      Iterator<Entry> iter = entries.values().iterator();
+      while (size > maxSize && iter.hasNext()) {
+        Entry eldest = iter.next();
+        size -= eldest.getSize();
+        iter.remove();
+      }
+    }
+    return entry;
+  }
+  
+  /**
+   * Removes <code>file</code> from the cache. When <code>file</code> is a precompressed 
+   * sibling, the file it belongs to is removed.
+   */
+  public synchronized void invalidate(File file) {
+    String key = file.getAbsolutePath();
+    if (StringUtils.endsWithAny(key, ".gz", ".br")) {
+      key = key.substring(0, key.length() - 3);
+    }
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      size -= entry.getSize();
+    }
+  }
+  
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+  
+  private Entry load(File file, boolean compressible) throws IOException {
+    long lastModified = file.lastModified();
+    byte[] content = Files.readAllBytes(file.toPath());
+    byte[] gzip = readSibling(file, ".gz", lastModified);
+    byte[] brotli = readSibling(file, ".br", lastModified);
+    if (gzip == null && compress && compressible && content.length >= MIN_COMPRESS_SIZE) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 2);
+      try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+        gos.write(content);
+      }
+      if (bos.size() < content.length) {
+        gzip = bos.toByteArray();
+      }
+    }
+    return new Entry(file, lastModified, content, gzip, brotli);
+  }
+  
+  private byte[] readSibling(File file, String extension, long lastModified) throws IOException {
+    File sibling = new File(file.getPath() + extension);
+    if (!sibling.isFile() || sibling.lastModified() < lastModified || sibling.length() > maxEntrySize) {
+      return null;
+    }
+    return Files.readAllBytes(sibling.toPath());
+  }
+  
+  public static class Entry {
+    
+    private final File file;
+    private final long lastModified;
+    private final byte[] content;
+    private final byte[] gzip;
+    private final byte[] brotli;
+    
+    private Entry(File file, long lastModified, byte[] content, byte[] gzip, byte[] brotli) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.content = content;
+      this.gzip = gzip;
+      this.brotli = brotli;
+    }
+    
+    public File getFile() {
+      return file;
+    }
+    
+    public long getLastModified() {
+      return lastModified;
+    }
+    
+    public long getLength() {
+      return content.length;
+    }
+    
+    /**
+     * Returns the content in the encoding <code>encoding</code> (null for the identity 
+     * encoding), or null when there is no variant in that encoding. 
+     */
+    public byte[] getContent(String encoding) {
+      if (encoding == null) {
+        return content;
+      } else if (encoding.equals("br")) {
+        return brotli;
+      } else if (encoding.equals("gzip")) {
+        return gzip;
+      }
+      return null;
+    }
+    
+    public boolean hasEncodedVariants() {
+      return gzip != null || brotli != null;
+    }
+    
+    private long getSize() {
+      return content.length + ((gzip != null) ? gzip.length : 0) + ((brotli != null) ? brotli.length : 0);
+    }
+    
+  }
+  
+  public static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+    return type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("+json") || 
+        type.equals("application/javascript") || type.equals("application/json") || 
+        type.equals("application/xml") || type.equals("image/svg+xml");
+  }
+  
+  /**
+   * Returns the encoding of the variant of <code>entry</code> that best matches the 
+   * Accept-Encoding header, or null for the identity encoding.  
+   */
+  public static String negotiateEncoding(Entry entry, String acceptEncoding) {
+    if (acceptEncoding == null || !entry.hasEncodedVariants()) {
+      return null;
+    }
+    boolean br = false;
+    boolean gzip = false;
+    for (String part : acceptEncoding.split(",")) {
+      String coding = StringUtils.substringBefore(part, ";").trim().toLowerCase();
+      String params = StringUtils.substringAfter(part, ";").replace(" ", "");
+      if (params.startsWith("q=0") && !params.matches("q=0\\.0*[1-9].*")) {
+        continue; // Not acceptable
+      }
+      if (coding.equals("br") || coding.equals("*")) {
+        br = true;
+      } 
+      if (coding.equals("gzip") || coding.equals("*")) {
+        gzip = true;
+      }
+    }
+    if (br && entry.brotli != null) {
+      return "br";
+    } else if (gzip && entry.gzip != null) {
+      return "gzip";
+    }
+    return null;
+  }
+  
+}
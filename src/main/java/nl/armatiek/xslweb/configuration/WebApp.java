@@ -27,24 +27,34 @@ import java.io.FileNotFoundException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-import javax.script.Bindings;
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.servlet.http.HttpServletRequest;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.SAXParser;
@@ -64,6 +74,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.IOUtils;
@@ -74,6 +85,7 @@ import org.apache.commons.io.input.XmlStreamReader;
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.fop.apps.FopFactory;
 import org.apache.shiro.config.Ini;
@@ -129,39 +141,58 @@ import net.sf.saxon.trace.TraceCodeInjector;
 import net.sf.saxon.xpath.XPathFactoryImpl;
 import net.sf.webdav.LocalFileSystemStore;
 import net.sf.webdav.WebDavServletBean;
+import nl.armatiek.xslweb.ehcache.CachedResponse;
 import nl.armatiek.xslweb.ehcache.DefaultExpiryPolicy;
+import nl.armatiek.xslweb.ehcache.ResponseExpiryPolicy;
 import nl.armatiek.xslweb.error.XSLWebException;
 import nl.armatiek.xslweb.joost.MessageEmitter;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
+import nl.armatiek.xslweb.pipeline.PipelinePlan;
+import nl.armatiek.xslweb.pipeline.PipelinePlanCacheKey;
 import nl.armatiek.xslweb.quartz.NonConcurrentExecutionXSLWebJob;
 import nl.armatiek.xslweb.quartz.XSLWebJob;
 import nl.armatiek.xslweb.saxon.configuration.XSLWebConfiguration;
 import nl.armatiek.xslweb.saxon.debug.DebugTraceCodeInjector;
 import nl.armatiek.xslweb.saxon.errrorlistener.TransformationErrorListener;
 import nl.armatiek.xslweb.saxon.errrorlistener.ValidatorErrorHandler;
+import nl.armatiek.xslweb.saxon.functions.httpclient.ResponseTreeCache;
 import nl.armatiek.xslweb.saxon.utils.SaxonUtils;
+import nl.armatiek.xslweb.serializer.RequestSerializer;
 import nl.armatiek.xslweb.utils.XMLUtils;
 import nl.armatiek.xslweb.utils.XSLWebUtils;
+import okhttp3.OkHttpClient;
 
 public class WebApp implements ErrorHandler {
   
   private static final Logger logger = LoggerFactory.getLogger(WebApp.class);
   
+  private static final int MAX_HTTP_CLIENT_VARIANTS = 64;
+  private static final int MAX_ZIP_ENTRY_THREADS = 16;
+  
   private Map<String, XsltExecutable> xsltExecutableCache = new ConcurrentHashMap<String, XsltExecutable>();
   private Map<String, XQueryExecutable> xqueryExecutableCache = new ConcurrentHashMap<String, XQueryExecutable>();
   private Map<String, Templates> templatesCache =  new ConcurrentHashMap<String, Templates>();
   private Map<String, Schema> schemaCache = new ConcurrentHashMap<String, Schema>();
+  private Map<String, FutureTask<Object>> compilations = new ConcurrentHashMap<String, FutureTask<Object>>();
+  private WebAppMetrics metrics;
   private Map<String, byte[]> stylesheetExportFileCache = new ConcurrentHashMap<String, byte[]>();
   private Map<String, ArrayList<Attribute>> attributes = new ConcurrentHashMap<String, ArrayList<Attribute>>();
   private Map<String, ComboPooledDataSource> dataSourceCache = new ConcurrentHashMap<String, ComboPooledDataSource>();
-  private Map<String, ScriptEngine> scriptEngineCache = new ConcurrentHashMap<String, ScriptEngine>();
+  private Map<String, ScriptEnginePool> scriptEnginePools = new ConcurrentHashMap<String, ScriptEnginePool>();
   private Map<String, FopFactory> fopFactoryCache = new ConcurrentHashMap<String, FopFactory>();
   private Map<String, ExecutorService> executorServiceCache = new ConcurrentHashMap<String, ExecutorService>();
   private Map<String, ExtensionFunctionDefinition> extensionFunctionDefinitions = new ConcurrentHashMap<String, ExtensionFunctionDefinition>();
   private Map<String, ExtensionFunction> extensionFunctions = new ConcurrentHashMap<String, ExtensionFunction>();
   private CacheManager cacheManager;
   private CacheConfigurationBuilder<String, ArrayList> cacheConfig;
+  private volatile Cache<String, PipelinePlan> pipelinePlanCache;
+  private Set<String> pipelinePlanCacheKeySpecs = new ConcurrentSkipListSet<String>(PipelinePlanCacheKey.KEY_SPEC_ORDER);
+  private volatile Cache<String, CachedResponse> responseCache;
       
   private volatile boolean isClosed = true;
+  private volatile boolean isDraining = false;
+  private final AtomicInteger activeRequestCount = new AtomicInteger();
+  private boolean persistentCache;
   private File definition;
   private File homeDir;  
   private String name;
@@ -172,12 +203,26 @@ public class WebApp implements ErrorHandler {
   private boolean waitForJobsAtClose;
   // private boolean disableCookieManagement;
   private int maxUploadSize;
+  private int pipelinePlanCacheSize;
+  private int responseCacheSize;
+  private boolean warmUp;
+  private int warmUpThreads;
+  private CompiledStylesheetStore compiledStylesheetStore;
+  private Set<String> requestXMLSections;
   private String cacheBusterId;
   private Scheduler scheduler;
   private List<Resource> resources = new ArrayList<Resource>();
+  private StaticResourceCache staticResourceCache;
+  private DocumentPool documentPool;
   private List<Parameter> parameters = new ArrayList<Parameter>();
   private Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+  private Map<String, OkHttpClient> httpClients = new HashMap<String, OkHttpClient>();
+  private Map<String, OkHttpClient> httpClientVariants = new ConcurrentHashMap<String, OkHttpClient>();
+  private OkHttpClient defaultHttpClient;
+  private Map<String, ResponseTreeCache> httpResponseTreeCaches = new HashMap<String, ResponseTreeCache>();
   private Map<String, String> fopConfigs = new HashMap<String, String>();
+  private Map<String, FopRenderPool> fopRenderPools = new HashMap<String, FopRenderPool>();
+  private ThreadPoolExecutor zipEntryExecutor;
   private Map<String, Queue> queues = new HashMap<String, Queue>();
   private XsltExecutable identityXsltExecutable;
   private XSLWebConfiguration configuration;  
@@ -196,6 +241,7 @@ public class WebApp implements ErrorHandler {
     this.definition = webAppDefinition;
     this.homeDir = webAppDefinition.getParentFile();
     this.name = this.homeDir.getName();
+    this.metrics = context.getMetrics(name);
     
     DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     dbf.setNamespaceAware(true);    
@@ -253,7 +299,36 @@ public class WebApp implements ErrorHandler {
     this.maxUploadSize = XMLUtils.getIntegerValue(maxUploadSizeValue, 10);    
     String waitForJobsAtCloseValue = (String) xpath.evaluate("webapp:wait-for-jobs-at-close", docElem, XPathConstants.STRING);
     this.waitForJobsAtClose = XMLUtils.getBooleanValue(waitForJobsAtCloseValue, true);
+    String pipelinePlanCacheSizeValue = (String) xpath.evaluate("webapp:pipeline-plan-cache-size", docElem, XPathConstants.STRING);
+    this.pipelinePlanCacheSize = XMLUtils.getIntegerValue(pipelinePlanCacheSizeValue, 256);
+    String responseCacheSizeValue = (String) xpath.evaluate("webapp:response-cache-size", docElem, XPathConstants.STRING);
+    this.responseCacheSize = XMLUtils.getIntegerValue(responseCacheSizeValue, 256);
+    String warmUpValue = (String) xpath.evaluate("webapp:warm-up", docElem, XPathConstants.STRING);
+    this.warmUp = XMLUtils.getBooleanValue(warmUpValue, false);
+    String warmUpThreadsValue = (String) xpath.evaluate("webapp:warm-up-threads", docElem, XPathConstants.STRING);
+    this.warmUpThreads = Math.max(1, XMLUtils.getIntegerValue(warmUpThreadsValue, Runtime.getRuntime().availableProcessors()));
+    String compiledStylesheetStoreValue = (String) xpath.evaluate("webapp:compiled-stylesheet-store", docElem, XPathConstants.STRING);
+    if (XMLUtils.getBooleanValue(compiledStylesheetStoreValue, false) && !developmentMode && !(Context.getInstance().getDebugEnable() && debugMode)) {
+      this.compiledStylesheetStore = new CompiledStylesheetStore(new File(homeDir, "cache/sef"));
+    }
+    String requestXMLSectionsValue = (String) xpath.evaluate("webapp:request-xml-sections", docElem, XPathConstants.STRING);
+    this.requestXMLSections = new HashSet<String>(Arrays.asList(StringUtils.isBlank(requestXMLSectionsValue) ? 
+        RequestSerializer.SECTIONS : StringUtils.split(requestXMLSectionsValue)));
+    for (String section : requestXMLSections) {
+      if (!ArrayUtils.contains(RequestSerializer.SECTIONS, section)) {
+        throw new XSLWebException(String.format("Request XML section \"%s\" not supported", section));
+      }
+    }
     this.cacheBusterId = (String) xpath.evaluate("webapp:resources/webapp:cache-buster-id", docElem, XPathConstants.STRING); 
+    Element staticCacheElem = (Element) xpath.evaluate("webapp:resources/webapp:cache", docElem, XPathConstants.NODE);
+    if (staticCacheElem != null) {
+      this.staticResourceCache = new StaticResourceCache(staticCacheElem);
+    }
+    
+    Element documentPoolElem = (Element) xpath.evaluate("webapp:document-pool", docElem, XPathConstants.NODE);
+    if (documentPoolElem != null) {
+      this.documentPool = new DocumentPool(documentPoolElem);
+    }
     
     NodeList resourceNodes = (NodeList) xpath.evaluate("webapp:resources/webapp:resource", docElem, XPathConstants.NODESET);
     for (int i=0; i<resourceNodes.getLength(); i++) {
@@ -306,11 +381,24 @@ public class WebApp implements ErrorHandler {
       dataSources.put(dataSource.getName(), dataSource);
     }
     
+    defaultHttpClient = new HttpClientProfile().buildClient();
+    NodeList httpClientNodes = (NodeList) xpath.evaluate("webapp:http-clients/webapp:http-client", docElem, XPathConstants.NODESET);
+    for (int i=0; i<httpClientNodes.getLength(); i++) {
+      HttpClientProfile profile = new HttpClientProfile((Element) httpClientNodes.item(i), homeDir, name);
+      httpClients.put(profile.getName(), profile.buildClient());
+      if (profile.getTreeCacheSize() > 0) {
+        httpResponseTreeCaches.put(profile.getName(), new ResponseTreeCache(profile.getTreeCacheSize()));
+      }
+    }
+    
     NodeList fopConfigNodes = (NodeList) xpath.evaluate("webapp:fop-configs/webapp:fop-config", docElem, XPathConstants.NODESET);
     for (int i=0; i<fopConfigNodes.getLength(); i++) {
       Element fopConfig = (Element) fopConfigNodes.item(i);     
       Element fopElement = XMLUtils.getFirstChildElement(fopConfig);
       fopConfigs.put(fopConfig.getAttribute("name"), XMLUtils.nodeToString(fopElement));
+      if (FopRenderPool.getThreads(fopConfig) > 0) {
+        fopRenderPools.put(fopConfig.getAttribute("name"), new FopRenderPool(name, fopConfig));
+      }
     }
     
     NodeList queueNodes = (NodeList) xpath.evaluate("webapp:queues/webapp:queue", docElem, XPathConstants.NODESET);
@@ -346,6 +434,7 @@ public class WebApp implements ErrorHandler {
     Node ehCacheConfigNode = (Node) xpath.evaluate("ehcache:config", docElem, XPathConstants.NODE);
     
     if (ehCacheConfigNode != null) {
+      persistentCache = xpath.evaluate("ehcache:persistence", ehCacheConfigNode, XPathConstants.NODE) != null;
       String ehCacheConfigXML = XMLUtils.nodeToString(ehCacheConfigNode);
       Document ehCacheConfigDoc = XMLUtils.stringToDocument(ehCacheConfigXML);
       XmlConfiguration xmlConfig = new XmlConfiguration(ehCacheConfigDoc);
@@ -377,6 +466,24 @@ public class WebApp implements ErrorHandler {
     if (cacheManager != null) {
       logger.info("Initializing cache manager ...");
       cacheManager.init();
+      
+      if (!developmentMode && !(Context.getInstance().getDebugEnable() && debugMode) && pipelinePlanCacheSize > 0) {
+        logger.info("Initializing pipeline plan cache ...");
+        pipelinePlanCache = cacheManager.createCache(Definitions.CACHENAME_PIPELINEPLANS, 
+            CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, PipelinePlan.class, 
+                ResourcePoolsBuilder.heap(pipelinePlanCacheSize)));
+      }
+      
+      if (!developmentMode && !(Context.getInstance().getDebugEnable() && debugMode) && responseCacheSize > 0) {
+        logger.info("Initializing response cache ...");
+        responseCache = cacheManager.createCache(Definitions.CACHENAME_RESPONSECACHINGFILTER, 
+            CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, CachedResponse.class, 
+                ResourcePoolsBuilder.heap(responseCacheSize)).withExpiry(new ResponseExpiryPolicy()));
+      }
+    }
+    
+    if (warmUp && !developmentMode) {
+      warmUp();
     }
     
     logger.info("Executing handler for webapp-open event ...");
@@ -421,6 +528,9 @@ public class WebApp implements ErrorHandler {
       logger.info("Shutdown of Quartz scheduler complete.");
     }
     
+    pipelinePlanCache = null;
+    responseCache = null;
+    
     if (cacheManager != null) {
       logger.info("Closing cache manager ...");
       cacheManager.close();
@@ -447,6 +557,34 @@ public class WebApp implements ErrorHandler {
       }
     }
     
+    logger.info("Closing HTTP clients ...");
+    HttpClientProfile.closeClient(defaultHttpClient);
+    for (OkHttpClient client : httpClients.values()) {
+      HttpClientProfile.closeClient(client);
+    }
+    httpClientVariants.clear();
+    for (ResponseTreeCache treeCache : httpResponseTreeCaches.values()) {
+      treeCache.clear();
+    }
+    if (staticResourceCache != null) {
+      staticResourceCache.clear();
+    }
+    if (documentPool != null) {
+      documentPool.clear();
+    }
+    scriptEnginePools.clear();
+    
+    logger.info("Stopping FOP render pools ...");
+    for (FopRenderPool pool : fopRenderPools.values()) {
+      pool.shutdown();
+    }
+    
+    synchronized (this) {
+      if (zipEntryExecutor != null) {
+        zipEntryExecutor.shutdownNow();
+      }
+    }
+    
     logger.info("Stopping queueing services ...");
     for (ExecutorService service : executorServiceCache.values()) {
       service.shutdownNow();
@@ -544,6 +682,29 @@ public class WebApp implements ErrorHandler {
       
     });
     monitor.addObserver(classObserver);
+    
+    if (staticResourceCache != null) {
+      FileAlterationObserver staticObserver = new FileAlterationObserver(new File(homeDir, "static"));
+      staticObserver.addListener(new FileAlterationListenerAdaptor() {
+        
+        @Override
+        public void onFileCreate(File file) {
+          staticResourceCache.invalidate(file); // A new precompressed sibling
+        }
+        
+        @Override
+        public void onFileChange(File file) {
+          staticResourceCache.invalidate(file);
+        }
+        
+        @Override
+        public void onFileDelete(File file) {
+          staticResourceCache.invalidate(file);
+        }
+        
+      });
+      monitor.addObserver(staticObserver);
+    }
   }
   
   /*
@@ -583,6 +744,51 @@ public class WebApp implements ErrorHandler {
     return isClosed;
   }
   
+  /**
+   * Registers the start of a request on this webapp. Returns false when the webapp 
+   * is closed or draining and the request must not be handled by this instance.
+   */
+  public boolean enterRequest() {
+    if (isClosed || isDraining) {
+      return false;
+    }
+    activeRequestCount.incrementAndGet();
+    if (isClosed || isDraining) {
+      activeRequestCount.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+  
+  public void exitRequest() {
+    activeRequestCount.decrementAndGet();
+  }
+  
+  /**
+   * Stops accepting new requests and waits (at most timeout milliseconds) until all 
+   * requests that are being handled by this webapp are finished.
+   */
+  public void drain(long timeout) throws InterruptedException {
+    isDraining = true;
+    long deadline = System.currentTimeMillis() + timeout;
+    while (activeRequestCount.get() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    if (activeRequestCount.get() > 0) {
+      logger.warn(String.format("%d request(s) still active on webapp \"%s\" after drain timeout", activeRequestCount.get(), name));
+    }
+  }
+  
+  /**
+   * Returns true when a new instance of this webapp can be opened while this instance 
+   * is still running. This is not the case when this instance owns resources that 
+   * can only be used by one instance at a time, like a Quartz scheduler (which is 
+   * registered by webapp name) or a disk persistent cache.
+   */
+  public boolean supportsBlueGreenReload() {
+    return scheduler == null && !persistentCache;
+  }
+  
   public String getPath() {
     return (name.equals("ROOT")) ? "" : "/" + name;
   }
@@ -595,6 +801,10 @@ public class WebApp implements ErrorHandler {
     return description;
   }
   
+  public WebAppMetrics getMetrics() {
+    return metrics;
+  }
+  
   public boolean getDevelopmentMode() {
     return developmentMode;
   }
@@ -607,10 +817,29 @@ public class WebApp implements ErrorHandler {
     return maxUploadSize;
   }
   
+  public Set<String> getRequestXMLSections() {
+    return requestXMLSections;
+  }
+  
   public String getCacheBusterId() {
     return cacheBusterId;
   }
 
+  /**
+   * Returns the in-memory cache of static resources, or null when it is not configured.
+   */
+  public StaticResourceCache getStaticResourceCache() {
+    return staticResourceCache;
+  }
+  
+  /**
+   * Returns the pool of parsed XML files of this webapp, or null when no document pool 
+   * is configured.
+   */
+  public DocumentPool getDocumentPool() {
+    return documentPool;
+  }
+  
   public List<Resource> getResources() {
     return resources;
   }
@@ -623,6 +852,53 @@ public class WebApp implements ErrorHandler {
     return dataSources;
   }
   
+  /**
+   * Returns the HTTP client of the http-client profile with the specified name, or the
+   * default HTTP client of the webapp when name is null.
+   */
+  public OkHttpClient getHttpClient(String name) {
+    if (name == null) {
+      return defaultHttpClient;
+    }
+    OkHttpClient client = httpClients.get(name);
+    if (client == null) {
+      throw new XSLWebException("HTTP client profile \"" + name + "\" not configured in webapp.xml");
+    }
+    return client;
+  }
+  
+  /**
+   * Returns the cache of parsed response bodies of the http-client profile with the 
+   * specified name, or null when the profile has no response cache.
+   */
+  public ResponseTreeCache getHttpResponseTreeCache(String name) {
+    if (name == null) {
+      return null;
+    }
+    return httpResponseTreeCaches.get(name);
+  }
+  
+  /**
+   * Returns a variant of the HTTP client of profile <code>name</code> with settings that 
+   * are specified per request. Variants share the connection pool and dispatcher of the
+   * client of the profile and are cached by <code>variantKey</code>, which must therefore 
+   * identify all settings made by <code>customizer</code>. 
+   */
+  public OkHttpClient getHttpClient(String name, String variantKey, Consumer<OkHttpClient.Builder> customizer) {
+    OkHttpClient client = getHttpClient(name);
+    String key = ((name != null) ? name : "") + "|" + variantKey;
+    OkHttpClient variant = httpClientVariants.get(key);
+    if (variant == null) {
+      OkHttpClient.Builder builder = client.newBuilder();
+      customizer.accept(builder);
+      variant = builder.build();
+      if (httpClientVariants.size() < MAX_HTTP_CLIENT_VARIANTS) {
+        httpClientVariants.putIfAbsent(key, variant);
+      }
+    }
+    return variant;
+  }
+  
   public WebDavServletBean getWebDavServletBean() {
     return webDavServletBean;
   }
@@ -717,10 +993,130 @@ public class WebApp implements ErrorHandler {
     return null;
   }
   
+  /**
+   * Compiles the object with the specified key using compiler, making sure that concurrent 
+   * requests for the same key wait for the result of one compilation instead of compiling 
+   * the same source multiple times. 
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T compileOnce(String flightKey, Map<String, T> cache, String key, boolean store, 
+      Callable<T> compiler) throws Exception {
+    FutureTask<Object> task = new FutureTask<Object>(() -> {
+      T value = cache.get(key);
+      if (value == null) {
+        String type = StringUtils.substringBefore(flightKey, ":");
+        metrics.countCacheRequest(type, false);
+        WebAppMetrics.Sample sample = metrics.startSample();
+        try {
+          value = compiler.call();
+        } catch (Exception e) {
+          metrics.increment(WebAppMetrics.ERRORS_TOTAL, "phase", "compile");
+          throw e;
+        } finally {
+          metrics.observe(WebAppMetrics.COMPILE, sample, "type", type);
+        }
+        if (store) {
+          cache.put(key, value);
+        }
+      }
+      return value;
+    });
+    FutureTask<Object> existingTask = compilations.putIfAbsent(flightKey, task);
+    if (existingTask != null) {
+      task = existingTask;
+    } else {
+      try {
+        task.run();
+      } finally {
+        compilations.remove(flightKey, task);
+      }
+    }
+    try {
+      return (T) task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new XSLWebException(cause);
+    }
+  }
+  
+  private void warmUp() throws InterruptedException {
+    logger.info(String.format("Warming up webapp \"%s\" using %d threads ...", name, warmUpThreads));
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (File file : listWarmUpStylesheets()) {
+      tasks.add(() -> tryXsltExecutableCache(file.getAbsolutePath(), new TransformationErrorListener(null, developmentMode)));
+    }
+    for (File file : listWarmUpFiles("xquery", "xq", "xql", "xqy", "xquery")) {
+      tasks.add(() -> tryQueryCache(file.getAbsolutePath(), new TransformationErrorListener(null, developmentMode)));
+    }
+    for (File file : listWarmUpFiles("stx", "stx")) {
+      tasks.add(() -> tryTemplatesCache(file.getAbsolutePath(), new TransformationErrorListener(null, developmentMode)));
+    }
+    for (File file : listWarmUpFiles("sch", "sch")) {
+      tasks.add(() -> trySchematronCache(file.getAbsolutePath(), null, new TransformationErrorListener(null, developmentMode)));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(warmUpThreads);
+    int failures = 0;
+    try {
+      for (Future<Object> future : pool.invokeAll(tasks)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          /* Already logged */
+          failures++;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    logger.info(String.format("Warm-up of webapp \"%s\" complete (%d of %d compilations failed)", name, failures, tasks.size()));
+  }
+  
+  /* 
+   * Returns the stylesheets that are not included or imported by another stylesheet, 
+   * because most modules can only be compiled as part of the stylesheet that uses them. 
+   */
+  private Collection<File> listWarmUpStylesheets() {
+    Collection<File> files = listWarmUpFiles("xsl", "xsl", "xslt");
+    Set<File> modules = new HashSet<File>();
+    for (File file : files) {
+      try {
+        for (File module : CompiledStylesheetStore.getIncludedModules(file)) {
+          modules.add(module.getAbsoluteFile());
+        }
+      } catch (Exception e) {
+        logger.debug("Could not determine modules of stylesheet \"" + file.getAbsolutePath() + "\": " + e.getMessage());
+      }
+    }
+    List<File> stylesheets = new ArrayList<File>();
+    for (File file : files) {
+      if (!modules.contains(file.getAbsoluteFile())) {
+        stylesheets.add(file);
+      }
+    }
+    return stylesheets;
+  }
+  
+  private Collection<File> listWarmUpFiles(String dirName, String... extensions) {
+    File dir = new File(getHomeDir(), dirName);
+    if (!dir.isDirectory()) {
+      return new ArrayList<File>();
+    }
+    return FileUtils.listFiles(dir, extensions, true);
+  }
+  
   public XsltExecutable tryXsltExecutableCache(String transformationPath, ErrorListener errorListener, boolean cache) throws Exception {
     String key = FilenameUtils.normalize(transformationPath);
     XsltExecutable xsltExecutable = xsltExecutableCache.get(key);    
-    if (xsltExecutable == null) {
+    if (xsltExecutable != null) {
+      metrics.countCacheRequest("xslt", true);
+      return xsltExecutable;
+    }
+    return compileOnce("xslt:" + key, xsltExecutableCache, key, !developmentMode || cache, () -> {
       logger.info("Compiling and caching XSLT stylesheet \"" + transformationPath + "\" ...");                 
       try {
         SAXParserFactory spf = SAXParserFactory.newInstance();
@@ -746,16 +1142,22 @@ public class WebApp implements ErrorHandler {
         if (errorListener != null) {
           comp.setErrorListener(errorListener);
         }
-        xsltExecutable = comp.compile(source);        
+        if (compiledStylesheetStore != null && !transformationPath.startsWith("classpath:")) {
+          File xslFile = new File(transformationPath);
+          XsltExecutable storedExecutable = compiledStylesheetStore.load(xslFile, comp);
+          if (storedExecutable != null) {
+            return storedExecutable;
+          }
+          XsltExecutable executable = comp.compile(source);
+          compiledStylesheetStore.save(xslFile, executable);
+          return executable;
+        }
+        return comp.compile(source);        
       } catch (Exception e) {
         logger.error("Could not compile XSLT stylesheet \"" + transformationPath + "\"", e);
         throw e;
       }      
-      if (!developmentMode || cache) {
-        xsltExecutableCache.put(key, xsltExecutable);
-      }      
-    }
-    return xsltExecutable;
+    });
   }
   
   public XsltExecutable tryXsltExecutableCache(String transformationPath, ErrorListener errorListener) throws Exception {
@@ -766,7 +1168,11 @@ public class WebApp implements ErrorHandler {
       ErrorListener errorListener, boolean cache) throws Exception {
     String key = FilenameUtils.normalize(transformationPath);
     Templates templates = templatesCache.get(key);    
-    if (templates == null) {
+    if (templates != null) {
+      metrics.countCacheRequest("stx", true);
+      return templates;
+    }
+    return compileOnce("stx:" + key, templatesCache, key, !developmentMode || cache, () -> {
       logger.info("Compiling and caching STX stylesheet \"" + transformationPath + "\" ...");                 
       try {
         SAXParserFactory spf = SAXParserFactory.newInstance();
@@ -786,16 +1192,12 @@ public class WebApp implements ErrorHandler {
         if (errorListener != null) {
           tfi.setErrorListener(errorListener);
         };
-        templates = tfi.newTemplates(source);
+        return tfi.newTemplates(source);
       } catch (Exception e) {
         logger.error("Could not compile STX stylesheet \"" + transformationPath + "\"", e);
         throw e;
       }      
-      if (!developmentMode || cache) {
-        templatesCache.put(key, templates);
-      }      
-    }
-    return templates;
+    });
   }
   
   public Templates tryTemplatesCache(String transformationPath, ErrorListener errorListener) throws Exception {
@@ -805,28 +1207,32 @@ public class WebApp implements ErrorHandler {
   public XQueryExecutable tryQueryCache(String xqueryPath, ErrorListener errorListener) throws Exception {
     String key = FilenameUtils.normalize(xqueryPath);
     XQueryExecutable xquery = xqueryExecutableCache.get(key);    
-    if (xquery == null) {
+    if (xquery != null) {
+      metrics.countCacheRequest("xquery", true);
+      return xquery;
+    }
+    return compileOnce("xquery:" + key, xqueryExecutableCache, key, !developmentMode, () -> {
       logger.info("Compiling and caching xquery \"" + xqueryPath + "\" ...");                 
       try {
         XQueryCompiler comp = processor.newXQueryCompiler();
         comp.setErrorListener(errorListener);
-        xquery = comp.compile(new File(xqueryPath));     
+        return comp.compile(new File(xqueryPath));     
       } catch (Exception e) {
         logger.error("Could not compile XQuery \"" + xqueryPath + "\"", e);
         throw e;
       }      
-      if (!developmentMode) {
-        xqueryExecutableCache.put(key, xquery);
-      }      
-    }
-    return xquery;
+    });
   }
   
   public Schema trySchemaCache(Collection<String> schemaPaths,  
       ErrorListener errorListener) throws Exception {
     String key = StringUtils.join(schemaPaths, ";");
     Schema schema = schemaCache.get(key);    
-    if (schema == null) {
+    if (schema != null) {
+      metrics.countCacheRequest("xsd", true);
+      return schema;
+    }
+    return compileOnce("xsd:" + key, schemaCache, key, !developmentMode, () -> {
       logger.info("Compiling and caching schema(s) \"" + key + "\" ...");                 
       try {
         ArrayList<Source> schemaSources = new ArrayList<Source>();
@@ -839,23 +1245,23 @@ public class WebApp implements ErrorHandler {
         }
         SchemaFactory schemaFactory = XMLUtils.getNonSaxonJAXPSchemaFactory();       
         schemaFactory.setErrorHandler(new ValidatorErrorHandler("Schema file(s)"));
-        schema = schemaFactory.newSchema(schemaSources.toArray(new Source[schemaSources.size()]));
+        return schemaFactory.newSchema(schemaSources.toArray(new Source[schemaSources.size()]));
       } catch (Exception e) {
         logger.error("Error compiling schema(s) \"" + key + "\"", e);
         throw e;
       }      
-      if (!developmentMode) {
-        schemaCache.put(key, schema);
-      }      
-    }
-    return schema;
+    });
   }
     
   public XsltExecutable trySchematronCache(String schematronPath, String phase, 
       ErrorListener errorListener) throws Exception {
     String key = FilenameUtils.normalize(schematronPath) + (phase != null ? phase : "");
     XsltExecutable templates = xsltExecutableCache.get(key);    
-    if (templates == null) {
+    if (templates != null) {
+      metrics.countCacheRequest("sch", true);
+      return templates;
+    }
+    return compileOnce("sch:" + key, xsltExecutableCache, key, !developmentMode, () -> {
       logger.info("Compiling and caching schematron schema \"" + schematronPath + "\" ...");                 
       try {
         XdmNode source1 = processor.newDocumentBuilder().build(new File(schematronPath));
@@ -903,17 +1309,13 @@ public class WebApp implements ErrorHandler {
         
         XsltCompiler comp = processor.newXsltCompiler();
         comp.setErrorListener(errorListener);
-        templates = comp.compile(generatedXsltSource);
+        return comp.compile(generatedXsltSource);
         
       } catch (Exception e) {
         logger.error("Could not compile schematron schema \"" + schematronPath + "\"", e);
         throw e;
       }      
-      if (!developmentMode) {
-        xsltExecutableCache.put(key, templates);
-      }      
-    }
-    return templates;
+    });
   }
   
   public byte[] tryStylesheetExportFile(String xslPath, ErrorListener errorListener) throws Exception {
@@ -1001,6 +1403,76 @@ public class WebApp implements ErrorHandler {
     getCache(cacheName).remove(keyName);
   }
   
+  /**
+   * Looks up a cached pipeline plan for the request, trying the key specifications 
+   * of all pipeline plans that were cached before, from the most to the least specific.
+   */
+  public PipelinePlan getCachedPipelinePlan(HttpServletRequest req) {
+    Cache<String, PipelinePlan> cache = pipelinePlanCache;
+    if (cache == null) {
+      return null;
+    }
+    for (String keySpec : pipelinePlanCacheKeySpecs) {
+      PipelinePlan plan = cache.get(PipelinePlanCacheKey.getKey(keySpec, req, this));
+      if (plan != null) {
+        metrics.countCacheRequest("pipeline-plan", true);
+        return plan;
+      }
+    }
+    metrics.countCacheRequest("pipeline-plan", false);
+    return null;
+  }
+  
+  public void cachePipelinePlan(String keySpec, HttpServletRequest req, PipelinePlan plan) {
+    Cache<String, PipelinePlan> cache = pipelinePlanCache;
+    if (cache == null) {
+      return;
+    }
+    pipelinePlanCacheKeySpecs.add(keySpec);
+    cache.put(PipelinePlanCacheKey.getKey(keySpec, req, this), plan);
+  }
+  
+  public CachedResponse getCachedResponse(String key) {
+    Cache<String, CachedResponse> cache = responseCache;
+    if (cache == null) {
+      return null;
+    }
+    CachedResponse response = cache.get(key);
+    metrics.countCacheRequest("response", response != null);
+    return response;
+  }
+  
+  public boolean isResponseCacheEnabled() {
+    return responseCache != null;
+  }
+  
+  public void cacheResponse(String key, CachedResponse response) {
+    Cache<String, CachedResponse> cache = responseCache;
+    if (cache == null) {
+      return;
+    }
+    cache.put(key, response);
+  }
+  
+  /**
+   * Removes all cached responses that were cached with one of the specified tags. The 
+   * tags are only kept on the cached responses themselves, so nothing has to be cleaned 
+   * up when responses are evicted or expire; invalidation scans the (bounded) cache. 
+   */
+  public void invalidateCachedResponses(Collection<String> tags) {
+    Cache<String, CachedResponse> cache = responseCache;
+    if (cache == null || tags.isEmpty()) {
+      return;
+    }
+    Set<String> keys = new HashSet<String>();
+    for (Cache.Entry<String, CachedResponse> entry : cache) {
+      if (!Collections.disjoint(entry.getValue().getTags(), tags)) {
+        keys.add(entry.getKey());
+      }
+    }
+    cache.removeAll(keys);
+  }
+  
   @Override
   public void error(SAXParseException e) throws SAXException {
     logger.error(String.format("Error parsing \"%s\"", definition.getAbsolutePath()), e); 
@@ -1037,6 +1509,9 @@ public class WebApp implements ErrorHandler {
       if (dataSource.getPassword() != null) {
         cpds.setUser(dataSource.getPassword());
       }
+      if (dataSource.getStatementCacheSize() != null) {
+        cpds.setMaxStatementsPerConnection(dataSource.getStatementCacheSize());
+      }
       if (dataSource.getProperties() != null) {
         cpds.setProperties(dataSource.getProperties());
       }
@@ -1045,22 +1520,22 @@ public class WebApp implements ErrorHandler {
     return cpds;
   }
   
-  public ScriptEngine getScriptEngine(String instanceName, String engineName, Map<String, Object> extraBindings) {
-    ScriptEngine engine = scriptEngineCache.get(instanceName);
-    if (engine == null) {
-      System.setProperty("polyglot.engine.WarnInterpreterOnly", "false");
-      engine = new ScriptEngineManager().getEngineByName(engineName);
-      if (engine.getClass().getName().endsWith("GraalJSScriptEngine")) {
-        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-        bindings.put("polyglot.js.allowHostAccess", true);
-        bindings.put("polyglot.js.allowHostClassLookup", (Predicate<String>) s -> true);
-        if (extraBindings != null) {
-          bindings.putAll(extraBindings);
-        }
+  public ScriptEnginePool getScriptEnginePool(String instanceName, String engineName, Map<String, Object> extraBindings) {
+    return scriptEnginePools.computeIfAbsent(instanceName, 
+        name -> new ScriptEnginePool(name, engineName, extraBindings, Context.getInstance().getScriptEnginePoolSize()));
+  }
+  
+  /**
+   * Returns the pool the specified script engine was borrowed from, or null when the 
+   * engine was not created by a pool of this webapp.
+   */
+  public ScriptEnginePool getScriptEnginePool(ScriptEngine engine) {
+    for (ScriptEnginePool pool : scriptEnginePools.values()) {
+      if (pool.owns(engine)) {
+        return pool;
       }
-      scriptEngineCache.put(instanceName, engine);
     }
-    return engine;
+    return null;
   }
   
   public FopFactory getFopFactory(String configName) throws Exception {
@@ -1076,6 +1551,33 @@ public class WebApp implements ErrorHandler {
     return fopFactory;
   }
   
+  /**
+   * Returns the render pool of the FOP configuration with the specified name, or null 
+   * when its documents are rendered on the request thread.
+   */
+  public FopRenderPool getFopRenderPool(String configName) {
+    return fopRenderPools.get(configName);
+  }
+  
+  /**
+   * Returns the pool of threads on which the zip serializer fetches the file entries 
+   * of zip files that are fetched in parallel. The pool is shared by all requests, 
+   * every request limits its own number of pending file entries. 
+   */
+  public synchronized ExecutorService getZipEntryExecutor() {
+    if (zipEntryExecutor == null) {
+      final AtomicInteger threadNumber = new AtomicInteger(1);
+      zipEntryExecutor = new ThreadPoolExecutor(MAX_ZIP_ENTRY_THREADS, MAX_ZIP_ENTRY_THREADS, 60L, TimeUnit.SECONDS, 
+          new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, "xslweb-zip-" + name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          });
+      zipEntryExecutor.allowCoreThreadTimeOut(true);
+    }
+    return zipEntryExecutor;
+  }
+  
   public ExecutorService getExecutorService(String queueName) {
     ExecutorService service = executorServiceCache.get(queueName);
     if (service == null) {
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.ehcache;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Serialized response of a pipeline (status, headers and body) as stored in the 
+ * response cache of a webapp.
+ */
+public class CachedResponse implements Serializable {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private final int status;
+  private final List<String[]> headers;
+  private final byte[] body;
+  private final String etag;
+  private final long created;
+  private final int timeToLive;
+  private final int timeToIdle;
+  private final Set<String> tags;
+  
+  public CachedResponse(int status, List<String[]> headers, byte[] body, String etag, 
+      int timeToLive, int timeToIdle, Set<String> tags) {
+    this.status = status;
+    this.headers = Collections.unmodifiableList(headers);
+    this.body = body;
+    this.etag = etag;
+    this.created = System.currentTimeMillis();
+    this.timeToLive = timeToLive;
+    this.timeToIdle = timeToIdle;
+    this.tags = tags;
+  }
+  
+  public int getStatus() {
+    return status;
+  }
+  
+  /**
+   * Returns the response headers as name/value pairs, in the order they were set.
+   */
+  public List<String[]> getHeaders() {
+    return headers;
+  }
+  
+  public byte[] getBody() {
+    return body;
+  }
+  
+  public String getETag() {
+    return etag;
+  }
+  
+  public long getCreated() {
+    return created;
+  }
+  
+  public int getTimeToLive() {
+    return timeToLive;
+  }
+  
+  public int getTimeToIdle() {
+    return timeToIdle;
+  }
+  
+  public Set<String> getTags() {
+    return tags;
+  }
+  
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.ehcache;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.ehcache.expiry.ExpiryPolicy;
+
+/**
+ * Expiry policy of the response cache, using the time to live and time to idle 
+ * that are stored with every cached response.
+ */
+public class ResponseExpiryPolicy implements ExpiryPolicy<String, CachedResponse> {
+
+  @Override
+  public Duration getExpiryForCreation(String key, CachedResponse value) {
+    int ttl = value.getTimeToLive();
+    int tti = value.getTimeToIdle();
+    if (ttl > 0 && tti > 0) {
+      return Duration.ofSeconds(Math.min(ttl, tti));
+    } else if (ttl > 0) {
+      return Duration.ofSeconds(ttl);
+    } else if (tti > 0) {
+      return Duration.ofSeconds(tti);
+    }
+    return INFINITE;
+  }
+  
+  @Override
+  public Duration getExpiryForAccess(String key, Supplier<? extends CachedResponse> value) {
+    CachedResponse response = value.get();
+    if (response.getTimeToIdle() <= 0) {
+      return null;
+    }
+    Duration expiry = Duration.ofSeconds(response.getTimeToIdle());
+    if (response.getTimeToLive() > 0) {
+      /* Access must not extend the entry beyond its time to live: */
+      Duration remaining = Duration.ofMillis(response.getCreated() + (response.getTimeToLive() * 1000L) - System.currentTimeMillis());
+      if (remaining.compareTo(expiry) < 0) {
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+      }
+    }
+    return expiry;
+  }
+
+  @Override
+  public Duration getExpiryForUpdate(String key, Supplier<? extends CachedResponse> oldValue, CachedResponse newValue) {
+    return getExpiryForCreation(key, newValue);
+  }
+  
+}
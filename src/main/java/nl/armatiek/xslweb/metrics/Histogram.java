@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed bucket boundaries (in seconds). Observations only 
+ * increment a counter of the bucket they fall in, so recording is cheap and does 
+ * not contend between request threads.
+ */
+public class Histogram {
+  
+  private static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 
+      0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+  
+  /* One counter per bucket, the last one counts the observations above the highest bound: */
+  private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+  private final DoubleAdder sum = new DoubleAdder();
+  
+  public Histogram() {
+    for (int i=0; i<buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+  
+  public void observe(double seconds) {
+    int i = 0;
+    while (i < BOUNDS.length && seconds > BOUNDS[i]) {
+      i++;
+    }
+    buckets[i].increment();
+    sum.add(seconds);
+  }
+  
+  public static double[] getBounds() {
+    return BOUNDS.clone();
+  }
+  
+  /**
+   * Returns the cumulative counts of the buckets; the last element is the total 
+   * number of observations.
+   */
+  public long[] getCumulativeCounts() {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i=0; i<buckets.length; i++) {
+      total += buckets[i].sum();
+      counts[i] = total;
+    }
+    return counts;
+  }
+  
+  public long getCount() {
+    long total = 0;
+    for (LongAdder bucket : buckets) {
+      total += bucket.sum();
+    }
+    return total;
+  }
+  
+  public double getSum() {
+    return sum.sum();
+  }
+  
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    sum.reset();
+  }
+  
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Timing, allocation and counter metrics of one webapp. An instance is kept for the 
+ * lifetime of the XSLWeb context (see {@link nl.armatiek.xslweb.configuration.Context#getMetrics(String)}), 
+ * so the metrics of a webapp are not lost when it is reloaded. The metrics are exposed
+ * via JMX and, in the Prometheus text format, via the metrics servlet.
+ */
+public class WebAppMetrics implements WebAppMetricsMXBean {
+  
+  public static final String REQUEST = "xslweb_request";
+  public static final String STEP = "xslweb_step";
+  public static final String DISPATCHER = "xslweb_dispatcher";
+  public static final String COMPILE = "xslweb_compile";
+  public static final String REQUEST_XML_BUILD = "xslweb_request_xml_build";
+  public static final String TREE_BUILD = "xslweb_tree_build";
+  public static final String FOP_RENDER = "xslweb_fop_render";
+  
+  public static final String CACHE_REQUESTS_TOTAL = "xslweb_cache_requests_total";
+  public static final String RESPONSE_BYTES_TOTAL = "xslweb_response_bytes_total";
+  public static final String ERRORS_TOTAL = "xslweb_errors_total";
+  public static final String FOP_PAGES_TOTAL = "xslweb_fop_pages_total";
+  public static final String FOP_REJECTED_TOTAL = "xslweb_fop_rejected_total";
+  
+  private static final com.sun.management.ThreadMXBean threadMXBean = initThreadMXBean();
+  
+  private final String webAppName;
+  private final Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+  private final Map<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+  
+  public WebAppMetrics(String webAppName) {
+    this.webAppName = webAppName;
+  }
+  
+  private static com.sun.management.ThreadMXBean initThreadMXBean() {
+    try {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+          return sunBean;
+        }
+      }
+    } catch (Throwable t) { 
+      /* Allocation metrics are not available on this JVM */
+    }
+    return null;
+  }
+  
+  private static long getAllocatedBytes() {
+    return (threadMXBean != null) ? threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+  }
+  
+  public String getWebAppName() {
+    return webAppName;
+  }
+  
+  /**
+   * Starts measuring the duration of, and the memory allocated by the current thread 
+   * during, an operation.
+   */
+  public Sample startSample() {
+    return new Sample(System.nanoTime(), getAllocatedBytes());
+  }
+  
+  /**
+   * Records the duration of the operation measured by <code>sample</code> in the 
+   * histogram <code>&lt;name&gt;_duration_seconds</code> and the memory allocated by the 
+   * current thread in the counter <code>&lt;name&gt;_allocated_bytes_total</code>. The 
+   * labels are specified as name/value pairs.
+   */
+  public void observe(String name, Sample sample, String... labels) {
+    double seconds = (System.nanoTime() - sample.startNanos) / 1e9;
+    String labelText = formatLabels(labels);
+    histograms.computeIfAbsent(name + "_duration_seconds" + labelText, k -> new Histogram()).observe(seconds);
+    if (sample.startAllocatedBytes >= 0) {
+      long allocatedBytes = getAllocatedBytes() - sample.startAllocatedBytes;
+      if (allocatedBytes > 0) {
+        counters.computeIfAbsent(name + "_allocated_bytes_total" + labelText, k -> new LongAdder()).add(allocatedBytes);
+      }
+    }
+  }
+  
+  /**
+   * Adds <code>amount</code> to the counter <code>name</code>. The labels are 
+   * specified as name/value pairs.
+   */
+  public void increment(String name, long amount, String... labels) {
+    counters.computeIfAbsent(name + formatLabels(labels), k -> new LongAdder()).add(amount);
+  }
+  
+  public void increment(String name, String... labels) {
+    increment(name, 1, labels);
+  }
+  
+  public void countCacheRequest(String cacheName, boolean hit) {
+    increment(CACHE_REQUESTS_TOTAL, 1, "cache", cacheName, "result", hit ? "hit" : "miss");
+  }
+  
+  private String formatLabels(String... labels) {
+    StringBuilder sb = new StringBuilder("{webapp=\"").append(escapeLabelValue(webAppName)).append('"');
+    for (int i=0; i<labels.length-1; i+=2) {
+      sb.append(',').append(labels[i]).append("=\"").append(escapeLabelValue(labels[i+1])).append('"');
+    }
+    return sb.append('}').toString();
+  }
+  
+  private static String escapeLabelValue(String value) {
+    if (value == null) {
+      return "";
+    }
+    return StringUtils.replaceEach(value, new String[] { "\\", "\"", "\n" }, new String[] { "\\\\", "\\\"", "\\n" });
+  }
+  
+  /**
+   * Writes the metrics of the specified webapps in the Prometheus text exposition 
+   * format.
+   */
+  public static void writeText(Collection<WebAppMetrics> metrics, Writer writer) throws IOException {
+    SortedMap<String, Histogram> allHistograms = new TreeMap<String, Histogram>();
+    SortedMap<String, LongAdder> allCounters = new TreeMap<String, LongAdder>();
+    for (WebAppMetrics webAppMetrics : metrics) {
+      allHistograms.putAll(webAppMetrics.histograms);
+      allCounters.putAll(webAppMetrics.counters);
+    }
+    double[] bounds = Histogram.getBounds();
+    String lastName = null;
+    for (Map.Entry<String, Histogram> entry : allHistograms.entrySet()) {
+      String name = StringUtils.substringBefore(entry.getKey(), "{");
+      String labels = StringUtils.substringBetween(entry.getKey(), "{", "}");
+      if (!name.equals(lastName)) {
+        writer.write("# TYPE " + name + " histogram\n");
+        lastName = name;
+      }
+      long[] counts = entry.getValue().getCumulativeCounts();
+      for (int i=0; i<counts.length; i++) {
+        String le = (i < bounds.length) ? Double.toString(bounds[i]) : "+Inf";
+        writer.write(name + "_bucket{" + labels + ",le=\"" + le + "\"} " + counts[i] + "\n");
+      }
+      writer.write(name + "_sum{" + labels + "} " + Double.toString(entry.getValue().getSum()) + "\n");
+      writer.write(name + "_count{" + labels + "} " + counts[counts.length-1] + "\n");
+    }
+    lastName = null;
+    for (Map.Entry<String, LongAdder> entry : allCounters.entrySet()) {
+      String name = StringUtils.substringBefore(entry.getKey(), "{");
+      if (!name.equals(lastName)) {
+        writer.write("# TYPE " + name + " counter\n");
+        lastName = name;
+      }
+      writer.write(entry.getKey() + " " + entry.getValue().sum() + "\n");
+    }
+  }
+  
+  @Override
+  public Map<String, Long> getCounters() {
+    SortedMap<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result;
+  }
+  
+  @Override
+  public Map<String, Long> getDurationCounts() {
+    SortedMap<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().getCount());
+    }
+    return result;
+  }
+  
+  @Override
+  public Map<String, Double> getDurationMeansMillis() {
+    SortedMap<String, Double> result = new TreeMap<String, Double>();
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      long count = entry.getValue().getCount();
+      result.put(entry.getKey(), (count > 0) ? entry.getValue().getSum() * 1000 / count : 0d);
+    }
+    return result;
+  }
+  
+  @Override
+  public String getText() {
+    StringWriter writer = new StringWriter();
+    try {
+      writeText(Collections.singletonList(this), writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+  
+  @Override
+  public void reset() {
+    histograms.clear();
+    counters.clear();
+  }
+  
+  public static final class Sample {
+    
+    private final long startNanos;
+    private final long startAllocatedBytes;
+    
+    private Sample(long startNanos, long startAllocatedBytes) {
+      this.startNanos = startNanos;
+      this.startAllocatedBytes = startAllocatedBytes;
+    }
+    
+  }
+  
+}
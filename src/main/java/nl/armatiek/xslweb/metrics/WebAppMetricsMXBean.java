@@ -14,22 +14,25 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package nl.armatiek.xslweb.pipeline;
+package nl.armatiek.xslweb.metrics;
 
-import java.io.File;
-
-import nl.armatiek.xslweb.configuration.Context;
+import java.util.Map;
 
 /**
- * Pipeline step that performs an identity transformation
- * 
- * @author Maarten Kroon
- *
+ * JMX view on the metrics of a webapp. The keys of the returned maps are the series 
+ * names in the same format as the text endpoint, e.g. 
+ * <code>xslweb_step_duration_seconds{webapp="examples",pipeline="home",step="xsl:home.xsl"}</code>.
  */
-public class IdentityTransformerStep extends TransformerStep {
-
-  public IdentityTransformerStep() {
-    super(new File(Context.getInstance().getHomeDir(), "common/xsl/system/identity/identity.xsl").getAbsolutePath(), "identity", false);
-  }
+public interface WebAppMetricsMXBean {
+  
+  Map<String, Long> getCounters();
+  
+  Map<String, Long> getDurationCounts();
+  
+  Map<String, Double> getDurationMeansMillis();
+  
+  String getText();
+  
+  void reset();
   
-}
\ No newline at end of file
+}
@@ -18,6 +18,8 @@ package nl.armatiek.xslweb.pipeline;
 
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Stack;
@@ -36,6 +38,7 @@ import net.sf.saxon.s9api.Processor;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.Parameter;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.error.XSLWebException;
 import nl.armatiek.xslweb.web.filter.XSSEncodingFilter;
 import nl.armatiek.xslweb.xml.SerializingContentHandler;
 
@@ -43,7 +46,13 @@ public class PipelineHandler implements ContentHandler {
   
   private Stack<PipelineStep> pipelineSteps = new Stack<PipelineStep>();
   private Stack<ConditionalPipelineStep> conditionalPipelineSteps = new Stack<ConditionalPipelineStep>();
+  private String pipelineName;
   private int xssFilterFlags = 0;
+  private boolean planCache = false;
+  private String planCacheKeySpec;
+  private boolean streamRequestBody = false;
+  private boolean pushChain = false;
+  private ResponseCachePolicy responseCachePolicy;
   private SerializingContentHandler serializingHandler;
   private OutputStream os;
   private StringBuilder chars = new StringBuilder();
@@ -215,6 +224,26 @@ public class PipelineHandler implements ContentHandler {
         } else if (localName.equals("schema-path")) {
         } else if (localName.equals("schema-paths")) {
         } else if (localName.equals("pipeline")) {
+          pipelineName = StringUtils.trimToNull(getAttribute(atts, "name", null));
+          planCache = getAttribute(atts, "plan-cache", "false").equals("true");
+          if (planCache) {
+            planCacheKeySpec = PipelinePlanCacheKey.normalizeKeySpec(getAttribute(atts, "plan-cache-key", null));
+          }
+          streamRequestBody = getAttribute(atts, "stream-request-body", "false").equals("true");
+          pushChain = getAttribute(atts, "push-chain", "false").equals("true");
+          if (getAttribute(atts, "cache", "false").equals("true")) {
+            String scope = getAttribute(atts, "cache-scope", ResponseCachePolicy.SCOPE_WEBAPP);
+            if (!scope.equals(ResponseCachePolicy.SCOPE_WEBAPP) && !scope.equals(ResponseCachePolicy.SCOPE_USER)) {
+              throw new SAXException("Invalid value for attribute \"cache-scope\": \"" + scope + "\"");
+            }
+            responseCachePolicy = new ResponseCachePolicy(
+                StringUtils.trimToNull(getAttribute(atts, "cache-key", null)), 
+                Integer.parseInt(getAttribute(atts, "cache-time-to-live", "60")), 
+                Integer.parseInt(getAttribute(atts, "cache-time-to-idle", "60")),
+                scope,
+                getAttribute(atts, "cache-headers", "false").equals("true"),
+                new HashSet<String>(Arrays.asList(StringUtils.split(getAttribute(atts, "cache-tags", "")))));
+          }
         } else if (localName.equals("json-serializer")) {                                      
           JSONSerializerStep step = new JSONSerializerStep(atts);
           pipelineSteps.add(step);
@@ -318,6 +347,26 @@ public class PipelineHandler implements ContentHandler {
     return xssFilterFlags;
   }
   
+  public PipelinePlan getPipelinePlan() {
+    if (streamRequestBody && (pipelineSteps.isEmpty() || pipelineSteps.get(0).getClass() != TransformerStep.class)) {
+      throw new XSLWebException("The first step of a pipeline with stream-request-body=\"true\" must be a transformer step");
+    }
+    return new PipelinePlan(pipelineName, pipelineSteps, xssFilterFlags, streamRequestBody, pushChain, responseCachePolicy);
+  }
+  
+  /**
+   * Returns true when the request dispatcher declared (by specifying plan-cache="true" 
+   * on pipeline:pipeline) that its output only depends on the request properties in 
+   * the plan cache key specification.
+   */
+  public boolean isPlanCacheable() {
+    return planCache;
+  }
+  
+  public String getPlanCacheKeySpec() {
+    return planCacheKeySpec;
+  }
+  
   private String getAttribute(Attributes attr, String name, String defaultValue) {
     int index = -1;
     return ((index = attr.getIndex(name)) >= 0) ? attr.getValue(index) : defaultValue;
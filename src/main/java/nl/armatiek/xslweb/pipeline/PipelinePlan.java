@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of the execution of the request dispatcher stylesheet: the 
+ * pipeline steps and the XSS filter flags. Instances can be shared between requests
+ * via the pipeline plan cache of a webapp.
+ */
+public class PipelinePlan {
+  
+  private final String name;
+  private final List<PipelineStep> pipelineSteps;
+  private final int xssFilterFlags;
+  private final boolean streamRequestBody;
+  private final boolean pushChain;
+  private final ResponseCachePolicy responseCachePolicy;
+  
+  public PipelinePlan(String name, List<PipelineStep> pipelineSteps, int xssFilterFlags, boolean streamRequestBody, 
+      boolean pushChain, ResponseCachePolicy responseCachePolicy) {
+    this.name = name;
+    this.pipelineSteps = Collections.unmodifiableList(new ArrayList<PipelineStep>(pipelineSteps));
+    this.xssFilterFlags = xssFilterFlags;
+    this.streamRequestBody = streamRequestBody;
+    this.pushChain = pushChain;
+    this.responseCachePolicy = responseCachePolicy;
+  }
+  
+  /**
+   * Returns the name of the pipeline as specified by the request dispatcher, or null
+   * when no name was specified. The name is used to label the metrics of the pipeline.
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * Returns an unmodifiable view of the pipeline steps; callers that want to add 
+   * steps must make their own copy.
+   */
+  public List<PipelineStep> getPipelineSteps() {
+    return pipelineSteps;
+  }
+  
+  public int getXSSFilterFlags() {
+    return xssFilterFlags;
+  }
+  
+  /**
+   * Returns true when the first transformer step of the pipeline must be fed directly
+   * from the input stream of the request instead of from the Request XML.
+   */
+  public boolean getStreamRequestBody() {
+    return streamRequestBody;
+  }
+  
+  /**
+   * Returns true when adjacent XSLT and XQuery steps must be linked as a push chain, 
+   * feeding the output of a step directly into the next step instead of passing an 
+   * intermediate tree.
+   */
+  public boolean getPushChain() {
+    return pushChain;
+  }
+  
+  /**
+   * Returns the response caching settings of the pipeline, or null when the output 
+   * of the pipeline must not be cached.
+   */
+  public ResponseCachePolicy getResponseCachePolicy() {
+    return responseCachePolicy;
+  }
+  
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.pipeline;
+
+import java.util.Comparator;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.error.XSLWebException;
+
+/**
+ * Builds the keys of the pipeline plan cache from a key specification declared 
+ * on the element pipeline:pipeline (attribute "plan-cache-key"). A key specification
+ * is a whitespace separated list of request properties, for instance 
+ * "method path parameter:lang".
+ */
+public class PipelinePlanCacheKey {
+  
+  public static final String DEFAULT_KEY_SPEC = "method path";
+  
+  private static final char SEPARATOR = '\u001F';
+  
+  /**
+   * Orders key specifications from the most to the least specific, so the cached plans 
+   * are always looked up in the same order.
+   */
+  public static final Comparator<String> KEY_SPEC_ORDER = 
+      Comparator.comparingInt((String keySpec) -> StringUtils.countMatches(keySpec, ' ')).reversed().thenComparing(Comparator.naturalOrder());
+  
+  public static String normalizeKeySpec(String keySpec) {
+    String[] props = StringUtils.split(StringUtils.defaultIfBlank(keySpec, DEFAULT_KEY_SPEC));
+    for (String prop : props) {
+      if (!isSupportedProperty(prop)) {
+        throw new XSLWebException(String.format("Request property \"%s\" not supported in pipeline plan cache key", prop));
+      }
+    }
+    if (!ArrayUtils.contains(props, "path") && !ArrayUtils.contains(props, "request-URI")) {
+      /* Otherwise the plan of one route would be used for the requests of all routes: */
+      throw new XSLWebException(String.format("Pipeline plan cache key \"%s\" must contain \"path\" or \"request-URI\"", keySpec));
+    }
+    return StringUtils.join(props, ' ');
+  }
+  
+  public static String getKey(String keySpec, HttpServletRequest req, WebApp webApp) {
+    StringBuilder sb = new StringBuilder(keySpec);
+    for (String prop : StringUtils.split(keySpec)) {
+      sb.append(SEPARATOR);
+      sb.append(StringUtils.defaultString(getPropertyValue(prop, req, webApp)));
+    }
+    return sb.toString();
+  }
+  
+  private static boolean isSupportedProperty(String prop) {
+    switch (prop) {
+    case "method":
+    case "path":
+    case "query-string":
+    case "request-URI":
+    case "scheme":
+    case "server-name":
+    case "server-port":
+    case "content-type":
+    case "remote-user":
+      return true;
+    default:
+      return (prop.startsWith("header:") || prop.startsWith("parameter:") || prop.startsWith("cookie:")) 
+          && prop.indexOf(':') < prop.length() - 1;
+    }
+  }
+  
+  private static String getPropertyValue(String prop, HttpServletRequest req, WebApp webApp) {
+    switch (prop) {
+    case "method":
+      return req.getMethod();
+    case "path":
+      String path = StringUtils.substringAfter(StringUtils.defaultString(req.getServletPath()) + 
+          StringUtils.defaultString(req.getPathInfo()), webApp.getPath());
+      return StringUtils.isBlank(path) ? "/" : path;
+    case "query-string":
+      return req.getQueryString();
+    case "request-URI":
+      return req.getRequestURI();
+    case "scheme":
+      return req.getScheme();
+    case "server-name":
+      return req.getServerName();
+    case "server-port":
+      return Integer.toString(req.getServerPort());
+    case "content-type":
+      return req.getContentType();
+    case "remote-user":
+      return req.getRemoteUser();
+    }
+    String name = StringUtils.substringAfter(prop, ":");
+    if (prop.startsWith("header:")) {
+      return req.getHeader(name);
+    } else if (prop.startsWith("parameter:")) {
+      String[] values = req.getParameterValues(name);
+      return (values == null) ? null : StringUtils.join(values, SEPARATOR);
+    } else if (prop.startsWith("cookie:")) {
+      Cookie[] cookies = req.getCookies();
+      if (cookies != null) {
+        for (Cookie cookie : cookies) {
+          if (cookie.getName().equals(name)) {
+            return cookie.getValue();
+          }
+        }
+      }
+    }
+    return null;
+  }
+  
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.pipeline;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable response caching settings of a pipeline, as declared by the caching 
+ * attributes on the pipeline:pipeline element.
+ */
+public class ResponseCachePolicy {
+  
+  public static final String SCOPE_WEBAPP = "webapp";
+  public static final String SCOPE_USER = "user";
+  
+  private final String cacheKey;
+  private final int timeToLive;
+  private final int timeToIdle;
+  private final String scope;
+  private final boolean cacheHeaders;
+  private final Set<String> tags;
+  
+  public ResponseCachePolicy(String cacheKey, int timeToLive, int timeToIdle, String scope, 
+      boolean cacheHeaders, Set<String> tags) {
+    this.cacheKey = cacheKey;
+    this.timeToLive = timeToLive;
+    this.timeToIdle = timeToIdle;
+    this.scope = scope;
+    this.cacheHeaders = cacheHeaders;
+    this.tags = Collections.unmodifiableSet(tags);
+  }
+  
+  /**
+   * Returns the cache key declared by the request dispatcher, or null when the 
+   * default key (method, request URI and query string) must be used.
+   */
+  public String getCacheKey() {
+    return cacheKey;
+  }
+  
+  public int getTimeToLive() {
+    return timeToLive;
+  }
+  
+  public int getTimeToIdle() {
+    return timeToIdle;
+  }
+  
+  public String getScope() {
+    return scope;
+  }
+  
+  public boolean getCacheHeaders() {
+    return cacheHeaders;
+  }
+  
+  public Set<String> getTags() {
+    return tags;
+  }
+  
+}
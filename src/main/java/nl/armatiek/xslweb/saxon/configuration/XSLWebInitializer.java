@@ -65,6 +65,7 @@ import nl.armatiek.xslweb.saxon.functions.expath.file.WriteBinary;
 import nl.armatiek.xslweb.saxon.functions.expath.file.WriteText;
 import nl.armatiek.xslweb.saxon.functions.expath.file.WriteTextLines;
 import nl.armatiek.xslweb.saxon.functions.httpclient.SendRequest;
+import nl.armatiek.xslweb.saxon.functions.httpclient.SendRequests;
 import nl.armatiek.xslweb.saxon.functions.image.Scale;
 import nl.armatiek.xslweb.saxon.functions.io.RegisterTempFile;
 import nl.armatiek.xslweb.saxon.functions.json.EscapeJSON;
@@ -108,10 +109,12 @@ import nl.armatiek.xslweb.saxon.functions.session.Invalidate;
 import nl.armatiek.xslweb.saxon.functions.session.SetMaxInactiveInterval;
 import nl.armatiek.xslweb.saxon.functions.sql.Close;
 import nl.armatiek.xslweb.saxon.functions.sql.Commit;
+import nl.armatiek.xslweb.saxon.functions.sql.ExecuteBatch;
 import nl.armatiek.xslweb.saxon.functions.sql.ExecuteQuery;
 import nl.armatiek.xslweb.saxon.functions.sql.ExecuteUpdate;
 import nl.armatiek.xslweb.saxon.functions.sql.GetConnection;
 import nl.armatiek.xslweb.saxon.functions.sql.GetNextRow;
+import nl.armatiek.xslweb.saxon.functions.sql.QueryRows;
 import nl.armatiek.xslweb.saxon.functions.sql.ResultSetToNode;
 import nl.armatiek.xslweb.saxon.functions.sql.Rollback;
 import nl.armatiek.xslweb.saxon.functions.transform.Transform;
@@ -185,6 +188,7 @@ public class XSLWebInitializer implements Initializer {
     registerXPathFunction(new nl.armatiek.xslweb.saxon.functions.webapp.GetCacheValue(), configuration);
     registerXPathFunction(new nl.armatiek.xslweb.saxon.functions.webapp.SetCacheValue(), configuration);
     registerXPathFunction(new nl.armatiek.xslweb.saxon.functions.webapp.RemoveCacheValue(), configuration);
+    registerXPathFunction(new nl.armatiek.xslweb.saxon.functions.webapp.InvalidateCachedResponses(), configuration);
     
     /* Email */
     registerXPathFunction(new SendMail(), configuration);
@@ -242,6 +246,7 @@ public class XSLWebInitializer implements Initializer {
     
     /* EXPath HttpClient: */           
     registerXPathFunction(new SendRequest(), configuration);  
+    registerXPathFunction(new SendRequests(), configuration);
     
     /* Script */
     registerXPathFunction(new Invoke(), configuration);
@@ -264,6 +269,8 @@ public class XSLWebInitializer implements Initializer {
     registerXPathFunction(new Commit(configuration), configuration);
     registerXPathFunction(new ExecuteQuery(configuration), configuration);
     registerXPathFunction(new ExecuteUpdate(configuration), configuration);
+    registerXPathFunction(new ExecuteBatch(configuration), configuration);
+    registerXPathFunction(new QueryRows(configuration), configuration);
     registerXPathFunction(new GetConnection(configuration), configuration);
     registerXPathFunction(new GetNextRow(configuration), configuration);
     registerXPathFunction(new Rollback(configuration), configuration);
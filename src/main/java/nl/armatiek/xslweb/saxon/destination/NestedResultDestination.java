@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.destination;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.serialize.SerializationProperties;
+
+/**
+ * Destination that receives the result of the last step of a nested (xslweb://) request 
+ * as a tree, so the requesting pipeline can use it without serializing and reparsing it. 
+ * Only pipelines of a webapp with a compatible Saxon configuration can write to it.
+ */
+public class NestedResultDestination extends XdmDestination {
+  
+  private final Configuration configuration;
+  private volatile boolean isUsed;
+  
+  public NestedResultDestination(Configuration configuration) {
+    this.configuration = configuration;
+  }
+  
+  public boolean accepts(Configuration configuration) {
+    return this.configuration.isCompatible(configuration);
+  }
+  
+  @Override
+  public Receiver getReceiver(PipelineConfiguration pipe, SerializationProperties params) throws SaxonApiException {
+    isUsed = true;
+    return super.getReceiver(pipe, params);
+  }
+  
+  /**
+   * Returns the document node of the result, or null when the result of the nested 
+   * request was serialized instead.
+   */
+  public NodeInfo getResult() {
+    return isUsed ? getXdmNode().getUnderlyingNode() : null;
+  }
+  
+}
@@ -1,7 +1,12 @@
 package nl.armatiek.xslweb.saxon.functions.dynfunc;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
@@ -10,7 +15,6 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 
@@ -24,10 +28,10 @@ import net.sf.saxon.expr.PJConverter;
 import net.sf.saxon.expr.StaticProperty;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.Function;
+import net.sf.saxon.om.GroundedValue;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.Sequence;
-import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.StandardNames;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.s9api.QName;
@@ -80,10 +84,19 @@ public class DynamicExtensionFunctionDefinition extends ExtensionFunctionDefinit
   private Class<?> returnType;
   private Class<?>[] parameterTypes;
   private boolean hasSideEffects;
-  private Method method;
+  private ImplicitObject[] implicitObjects;
+  private MethodHandle methodHandle;
+  private JPConverter resultConverter;
+  private ArgumentConverter[] argumentConverters;
+  
+  private enum ImplicitObject { XPATH_CONTEXT, CONTEXT, WEBAPP, SESSION, REQUEST, RESPONSE }
+  
+  private interface ArgumentConverter {
+    Object convert(Sequence argument) throws XPathException;
+  }
   
   public DynamicExtensionFunctionDefinition(Configuration configuration, StructuredQName funcName, 
-      Class<?> returnType, Class<?>[] parameterTypes, boolean hasSideEffects, Method method) {
+      Class<?> returnType, Class<?>[] parameterTypes, boolean hasSideEffects, Method method, Object receiver) throws ReflectiveOperationException {
     super(configuration);
     this.funcName = funcName;
     this.minArguments = parameterTypes.length;
@@ -91,7 +104,62 @@ public class DynamicExtensionFunctionDefinition extends ExtensionFunctionDefinit
     this.parameterTypes = parameterTypes;
     this.returnType = returnType;
     this.hasSideEffects = hasSideEffects;
-    this.method = method;
+    this.implicitObjects = getImplicitObjects(parameterTypes);
+    this.methodHandle = bind(method, receiver);
+    this.resultConverter = JPConverter.allocate(returnType, null, configuration);
+    this.argumentConverters = new ArgumentConverter[parameterTypes.length];
+    for (int i=implicitObjects.length; i<parameterTypes.length; i++) {
+      argumentConverters[i] = getArgumentConverter(parameterTypes[i]);
+    }
+  }
+  
+  /* 
+   * Binds the method once to a method handle that takes the parameters as an Object[] 
+   * and returns the (boxed) result as an Object, so it can be called with invokeExact. 
+   * Instance methods are bound to the receiver object that is shared by all methods of 
+   * the class and reused for all calls.
+   */
+  private static MethodHandle bind(Method method, Object receiver) throws ReflectiveOperationException {
+    method.setAccessible(true);
+    MethodHandle handle = MethodHandles.lookup().unreflect(method);
+    if (!Modifier.isStatic(method.getModifiers())) {
+      handle = handle.bindTo(receiver);
+    }
+    return handle
+        .asSpreader(Object[].class, method.getParameterCount())
+        .asType(MethodType.methodType(Object.class, Object[].class));
+  }
+  
+  /* 
+   * Creates the receiver object for the instance methods of a class, using its 
+   * no-argument constructor. 
+   */
+  public static Object newReceiver(Class<?> callClass) throws ReflectiveOperationException {
+    Constructor<?> constructor = callClass.getDeclaredConstructor();
+    constructor.setAccessible(true);
+    return constructor.newInstance();
+  }
+  
+  private static ImplicitObject[] getImplicitObjects(Class<?>[] parameterTypes) {
+    ArrayList<ImplicitObject> implicitObjects = new ArrayList<ImplicitObject>();
+    for (Class<?> paramType: parameterTypes) {
+      if (paramType.equals(XPathContext.class)) {
+        implicitObjects.add(ImplicitObject.XPATH_CONTEXT);
+      } else if (paramType.equals(Context.class)) {
+        implicitObjects.add(ImplicitObject.CONTEXT);
+      } else if (paramType.equals(WebApp.class)) {
+        implicitObjects.add(ImplicitObject.WEBAPP);
+      } else if (paramType.equals(HttpSession.class)) {
+        implicitObjects.add(ImplicitObject.SESSION);
+      } else if (paramType.equals(HttpServletRequest.class)) {
+        implicitObjects.add(ImplicitObject.REQUEST);
+      } else if (paramType.equals(HttpServletResponse.class)) {
+        implicitObjects.add(ImplicitObject.RESPONSE);
+      } else {
+        break;
+      }
+    }
+    return implicitObjects.toArray(new ImplicitObject[implicitObjects.size()]);
   }
   
   @Override
@@ -321,169 +389,160 @@ public class DynamicExtensionFunctionDefinition extends ExtensionFunctionDefinit
     }
   }
   
+  /* 
+   * Resolves the converter of an XPath argument to a value of the Java parameter type once, 
+   * so a call only has to convert the items. Array elements are written directly into an 
+   * array of the parameter type. 
+   */
+  private ArgumentConverter getArgumentConverter(Class<?> paramType) {
+    if (!paramType.isArray()) {
+      return argument -> convertToJava(argument.head(), paramType);
+    }
+    Class<?> componentType = paramType.getComponentType();
+    if (!componentType.isPrimitive()) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        Object[] array = (Object[]) Array.newInstance(componentType, value.getLength());
+        for (int j=0; j<array.length; j++) {
+          array[j] = convertToJava(value.itemAt(j), componentType);
+        }
+        return array;
+      };
+    } else if (componentType.equals(byte.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        byte[] byteArray = new byte[value.getLength()];
+        for (int j=0; j<byteArray.length; j++) {
+          byteArray[j] = (byte) convertToJava(value.itemAt(j), byte.class);
+        }
+        return byteArray;
+      };
+    } else if (componentType.equals(short.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        short[] shortArray = new short[value.getLength()];
+        for (int j=0; j<shortArray.length; j++) {
+          shortArray[j] = (short) convertToJava(value.itemAt(j), short.class);
+        }
+        return shortArray;
+      };
+    } else if (componentType.equals(int.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        int[] intArray = new int[value.getLength()];
+        for (int j=0; j<intArray.length; j++) {
+          intArray[j] = (int) convertToJava(value.itemAt(j), int.class);
+        }
+        return intArray;
+      };
+    } else if (componentType.equals(long.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        long[] longArray = new long[value.getLength()];
+        for (int j=0; j<longArray.length; j++) {
+          longArray[j] = (long) convertToJava(value.itemAt(j), long.class);
+        }
+        return longArray;
+      };
+    } else if (componentType.equals(float.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        float[] floatArray = new float[value.getLength()];
+        for (int j=0; j<floatArray.length; j++) {
+          floatArray[j] = (float) convertToJava(value.itemAt(j), float.class);
+        }
+        return floatArray;
+      };
+    } else if (componentType.equals(double.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        double[] doubleArray = new double[value.getLength()];
+        for (int j=0; j<doubleArray.length; j++) {
+          doubleArray[j] = (double) convertToJava(value.itemAt(j), double.class);
+        }
+        return doubleArray;
+      };
+    } else if (componentType.equals(boolean.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        boolean[] booleanArray = new boolean[value.getLength()];
+        for (int j=0; j<booleanArray.length; j++) {
+          booleanArray[j] = (boolean) convertToJava(value.itemAt(j), boolean.class);
+        }
+        return booleanArray;
+      };
+    } else if (componentType.equals(char.class)) {
+      return argument -> {
+        GroundedValue value = argument.materialize();
+        char[] charArray = new char[value.getLength()];
+        for (int j=0; j<charArray.length; j++) {
+          charArray[j] = (char) convertToJava(value.itemAt(j), char.class);
+        }
+        return charArray;
+      };
+    } 
+    throw new UnsupportedOperationException("Unsupported primitive type");
+  }
+  
   @Override
   public ExtensionFunctionCall makeCallExpression() {
     return new ExtensionFunctionCall() {
-      @SuppressWarnings("unchecked")
       @Override
       public Sequence call(XPathContext context, Sequence[] arguments) throws XPathException {
-        try { 
-          ArrayList<Object> implicitObjects = new ArrayList<Object>();
-          for (Class paramType: parameterTypes) {
-            if (paramType.equals(XPathContext.class)) {
-              implicitObjects.add(context);
-              continue;
-            } else if (paramType.equals(Context.class)) {
-              implicitObjects.add(Context.getInstance());
-              continue;
-            } else if (paramType.equals(WebApp.class)) {
-              implicitObjects.add(getWebApp(context));
-              continue;
-            } else if (paramType.equals(HttpSession.class)) {
-              implicitObjects.add(getSession(context, true));
-              continue;
-            } else if (paramType.equals(HttpServletRequest.class)) {
-              implicitObjects.add(getRequest(context));
-              continue;
-            } else if (paramType.equals(HttpServletResponse.class)) {
-              implicitObjects.add(getResponse(context));
-              continue;
-            } 
+        Object[] parameters = new Object[implicitObjects.length + arguments.length];
+        
+        if (parameters.length != parameterTypes.length) {
+          throw new XPathException(
+              String.format(
+                "The number of supplied arguments in the call to the XPath extension function \"%s\" (%d) "
+                + "does not match the number of declared arguments in the Java method (%d)%s", 
+                funcName.getClarkName(), 
+                arguments.length,
+                parameterTypes.length,
+                (implicitObjects.length == 0) ? "" : ", considering " + implicitObjects.length + " implicit objects"
+              ), 
+              "DF011");
+        }
+        
+        for (int i=0; i<implicitObjects.length; i++) {
+          switch (implicitObjects[i]) {
+          case XPATH_CONTEXT:
+            parameters[i] = context;
+            break;
+          case CONTEXT:
+            parameters[i] = Context.getInstance();
+            break;
+          case WEBAPP:
+            parameters[i] = getWebApp(context);
+            break;
+          case SESSION:
+            parameters[i] = getSession(context, true);
+            break;
+          case REQUEST:
+            parameters[i] = getRequest(context);
+            break;
+          case RESPONSE:
+            parameters[i] = getResponse(context);
             break;
           }
-          
-          Object[] parameters = new Object[implicitObjects.size() + arguments.length];
-          
-          if (parameters.length != parameterTypes.length) {
-            throw new XPathException(
-                String.format(
-                  "The number of supplied arguments in the call to the XPath extension function \"%s\" (%d) "
-                  + "does not match the number of declared arguments in the Java method (%d)%s", 
-                  funcName.getClarkName(), 
-                  arguments.length,
-                  parameterTypes.length,
-                  implicitObjects.isEmpty() ? "" : ", considering " + implicitObjects.size() + " implicit objects"
-                ), 
-                "DF011");
-          }
-          
-          if (!implicitObjects.isEmpty()) {
-            System.arraycopy(implicitObjects.toArray(new Object[implicitObjects.size()]), 0, parameters, 0, implicitObjects.size());
-          }
-          
-          for (int i=0; i<arguments.length; i++) {
-            Sequence argument = arguments[i];
-            Class paramType = parameterTypes[i + implicitObjects.size()];
-            boolean isArray = paramType.isArray();
-            Object param;
-            if (isArray) {
-              Class componentType = paramType.getComponentType();
-              ArrayList<Object> list = new ArrayList<Object>();
-              SequenceIterator si = argument.iterate();
-              Item item;
-              while ((item = si.next()) != null) {
-                list.add(convertToJava(item, componentType));
-              }
-              if (componentType.isPrimitive()) {
-                if (componentType.equals(byte.class)) {
-                  byte[] byteArray = new byte[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    byteArray[j] = (byte) list.get(j);
-                  }
-                  param = byteArray;
-                } else if (componentType.equals(short.class)) {
-                  short[] shortArray = new short[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    shortArray[j] = (short) list.get(j);
-                  }
-                  param = shortArray;
-                } else if (componentType.equals(int.class)) {
-                  int[] intArray = new int[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    intArray[j] = (int) list.get(j);
-                  }
-                  param = intArray;
-                } else if (componentType.equals(long.class)) {
-                  long[] longArray = new long[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    longArray[j] = (long) list.get(j);
-                  }
-                  param = longArray;
-                } else if (componentType.equals(float.class)) {
-                  float[] floatArray = new float[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    floatArray[j] = (float) list.get(j);
-                  }
-                  param = floatArray;
-                } else if (componentType.equals(double.class)) {
-                  double[] doubleArray = new double[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    doubleArray[j] = (double) list.get(j);
-                  }
-                  param = doubleArray;
-                } else if (componentType.equals(boolean.class)) {
-                  boolean[] booleanArray = new boolean[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    booleanArray[j] = (boolean) list.get(j);
-                  }
-                  param = booleanArray;
-                } else if (componentType.equals(char.class)) {
-                  char[] charArray = new char[list.size()];
-                  for (int j=0; j<list.size(); j++) {
-                    charArray[j] = (char) list.get(j);
-                  }
-                  param = charArray;
-                } else {
-                  throw new UnsupportedOperationException("Unsupported primitive type");
-                }
-              } else {
-                Object[] objArr = list.toArray(new Object[list.size()]);
-                param = Arrays.copyOf(objArr, objArr.length, paramType);
-              }
-            } else {
-              /*
-              Object obj = convertToJava(argument.head(), paramType);
-              if (paramType.isPrimitive()) {
-                if (paramType.equals(byte.class)) {
-                  param = ((Byte) obj).byteValue();
-                } else if (paramType.equals(short.class)) {
-                  param = ((Short) obj).shortValue();
-                } else if (paramType.equals(int.class)) {
-                  if (obj.getClass().equals(Long.class)) {
-                    param = ((Long) obj).intValue();
-                  } else {
-                    param = ((Integer) obj).intValue();  
-                  }
-                } else if (paramType.equals(long.class)) {
-                  param = ((Long) obj).longValue();
-                } else if (paramType.equals(float.class)) {
-                  param = ((Float) obj).floatValue();
-                } else if (paramType.equals(double.class)) {
-                  param = ((Double) obj).doubleValue();
-                } else if (paramType.equals(boolean.class)) {
-                  param = ((Boolean) obj).booleanValue();
-                } else if (paramType.equals(char.class)) {
-                  param = ((Character) obj).charValue();
-                } else {
-                  throw new UnsupportedOperationException("Unsupported primitive type");
-                }
-              } else {
-                param = obj;
-              }
-              */
-              param = convertToJava(argument.head(), paramType);
-            }
-            parameters[i + implicitObjects.size()] = param;
-          }
-          Object callObj = method.getDeclaringClass().newInstance();
-          Object resultObj = method.invoke(callObj, parameters);
-          JPConverter conv = JPConverter.allocate(returnType, null, context.getConfiguration());
-          return conv.convert(resultObj, context);
-        } catch (InvocationTargetException | IllegalAccessException | IllegalArgumentException | InstantiationException e) {
+        }
+        
+        for (int i=0; i<arguments.length; i++) {
+          int index = i + implicitObjects.length;
+          parameters[index] = argumentConverters[index].convert(arguments[i]);
+        }
+        
+        Object resultObj;
+        try {
+          resultObj = methodHandle.invokeExact(parameters);
+        } catch (Error e) {
+          throw e;
+        } catch (Throwable e) {
           XPathException xe = new XPathException(e);
           xe.setErrorCode("DF013");
           throw xe;
-        } 
+        }
+        return resultConverter.convert(resultObj, context);
       }
     };
     
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -328,13 +329,17 @@ public class Register extends ExtensionFunctionDefinition {
           for (String className : qualifiedClassNames) {
             Class<?> callClass = ((Class<?>) compiledClassLoader.loadClass(className));
             Method[] methods = MethodUtils.getMethodsWithAnnotation(callClass, ExtensionFunction.class);          
+            Object receiver = null;
             for (Method method: methods) {
+              if (receiver == null && !Modifier.isStatic(method.getModifiers())) {
+                receiver = DynamicExtensionFunctionDefinition.newReceiver(callClass);
+              }
               ExtensionFunction extFunc = method.getAnnotation(ExtensionFunction.class);
               StructuredQName functName = new StructuredQName("", extFunc.uri(), extFunc.name()); 
               Class<?> returnType = method.getReturnType();
               Class<?>[] parameterTypes = method.getParameterTypes();
               ExtensionFunctionDefinition funcDef = new DynamicExtensionFunctionDefinition(context.getConfiguration(), 
-                  functName, returnType, parameterTypes, extFunc.hasSideEffects(), method);
+                  functName, returnType, parameterTypes, extFunc.hasSideEffects(), method, receiver);
               getWebApp(context).registerExtensionFunctionDefinition(functName.getClarkName(), funcDef);            
             }
           }
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.httpclient;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.saxon.om.NodeInfo;
+import okhttp3.Response;
+
+/**
+ * In-memory cache of parsed XML/HTML response bodies of an http-client profile that has 
+ * a response cache. A parsed tree is only reused when the response itself is served 
+ * from the HTTP cache (fresh or revalidated with a 304), so that both the network call 
+ * and the parse are skipped.
+ */
+public class ResponseTreeCache {
+  
+  private final Map<String, NodeInfo> trees;
+  
+  public ResponseTreeCache(final int maxEntries) {
+    this.trees = Collections.synchronizedMap(new LinkedHashMap<String, NodeInfo>(16, 0.75f, true) {
+      
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, NodeInfo> eldest) {
+        return size() > maxEntries;
+      }
+      
+    });
+  }
+  
+  /**
+   * Returns the key under which the parsed body of <code>response</code> is cached, 
+   * or null when the response does not identify its representation (no ETag, 
+   * Last-Modified or Date header), was not the result of a GET request or may not be 
+   * stored in a shared cache.
+   */
+  public static String getKey(Response response, String mediaType) {
+    if (!response.request().method().equals("GET") || !SharedCacheInterceptor.isStorable(response.request(), response)) {
+      return null;
+    }
+    String validator = response.header("ETag");
+    if (validator == null) {
+      validator = response.header("Last-Modified");
+    }
+    if (validator == null) {
+      validator = response.header("Date");
+    }
+    if (validator == null) {
+      return null;
+    }
+    return response.request().url().toString() + '\n' + validator + '\n' + mediaType;
+  }
+  
+  /**
+   * Returns true when the body of <code>response</code> was not transferred over the
+   * network. 
+   */
+  public static boolean isServedFromCache(Response response) {
+    return response.cacheResponse() != null && 
+        (response.networkResponse() == null || response.networkResponse().code() == 304);
+  }
+  
+  public NodeInfo get(String key) {
+    return trees.get(key);
+  }
+  
+  public void put(String key, NodeInfo tree) {
+    trees.put(key, tree);
+  }
+  
+  public void clear() {
+    trees.clear();
+  }
+  
+}
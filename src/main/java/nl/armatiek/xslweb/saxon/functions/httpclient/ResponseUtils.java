@@ -135,6 +135,15 @@ public class ResponseUtils {
     case XML:
     case XHTML:
     case HTML:
+      ResponseTreeCache treeCache = response.request().tag(ResponseTreeCache.class);
+      String treeKey = (treeCache != null) ? ResponseTreeCache.getKey(response, mediaType.toString()) : null;
+      if (treeKey != null && ResponseTreeCache.isServedFromCache(response)) {
+        NodeInfo tree = treeCache.get(treeKey);
+        webApp.getMetrics().countCacheRequest("http-tree", tree != null);
+        if (tree != null) {
+          return tree;
+        }
+      }
       try {
         TinyBuilder builder = new TinyBuilder(context.getConfiguration().makePipelineConfiguration());
         builder.setStatistics(context.getConfiguration().getTreeStatistics().SOURCE_DOCUMENT_STATISTICS);
@@ -155,7 +164,11 @@ public class ResponseUtils {
         }
         Sender.send(source, builder, parseOptions);
         builder.close();
-        return builder.getCurrentRoot();
+        NodeInfo root = builder.getCurrentRoot();
+        if (treeKey != null) {
+          treeCache.put(treeKey, root);
+        }
+        return root;
       } catch (XPathException e) {
         e.setErrorCode("HC002");
         throw e;
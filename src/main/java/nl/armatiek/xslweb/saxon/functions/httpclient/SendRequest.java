@@ -22,8 +22,8 @@ import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -44,9 +44,11 @@ import net.sf.saxon.value.IntegerValue;
 import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.StringValue;
 import nl.armatiek.xslweb.configuration.Context;
+import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.error.XSLWebException;
 import nl.armatiek.xslweb.saxon.utils.NodeInfoUtils;
 import okhttp3.Authenticator;
-import okhttp3.ConnectionSpec;
+import okhttp3.CacheControl;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -101,9 +103,31 @@ public class SendRequest extends ExtensionFunctionDefinition {
         
     private static final int TIMEOUT_DEFAULT = 30;
     
-    private final static OkHttpClient client = new OkHttpClient.Builder()
-        .connectionSpecs(Arrays.asList(ConnectionSpec.MODERN_TLS, ConnectionSpec.COMPATIBLE_TLS, ConnectionSpec.CLEARTEXT))
-        .build();
+    /* The (proxy) authenticators are shared by all clients and take the credentials from 
+     * the request, so a client does not have to be created per set of credentials: */
+    private final static Authenticator authenticator = new Authenticator() {    
+      @Override
+      public Request authenticate(Route route, Response response) throws IOException {
+        BasicCredentials credentials = response.request().tag(BasicCredentials.class);
+        if (credentials == null || credentials.username == null || response.request().header("Authorization") != null) {
+          return null; // Give up, we've already attempted to authenticate.
+        }
+        String credential = Credentials.basic(credentials.username, credentials.password);
+        return response.request().newBuilder().header("Authorization", credential).build();
+      }
+    };
+    
+    private final static Authenticator proxyAuthenticator = new Authenticator() {
+      @Override
+      public Request authenticate(Route route, Response response) throws IOException {
+        BasicCredentials credentials = response.request().tag(BasicCredentials.class);
+        if (credentials == null || credentials.proxyUsername == null || response.request().header("Proxy-Authorization") != null) {
+          return null; // Give up, we've already attempted to authenticate.
+        }
+        String credential = Credentials.basic(credentials.proxyUsername, credentials.proxyPassword);
+        return response.request().newBuilder().header("Proxy-Authorization", credential).build();
+      }
+    };
     
     private boolean getBoolean(String value, boolean defaultValue) {
       if (value == null) {
@@ -131,7 +155,37 @@ public class SendRequest extends ExtensionFunctionDefinition {
     
     @Override
     public ZeroOrMore<Item> call(XPathContext context, Sequence[] arguments) throws XPathException {
-      NodeInfo requestElem =  unwrapNodeInfo((NodeInfo) arguments[0].head()); 
+      NodeInfo requestElem = (NodeInfo) arguments[0].head();
+      String href = null;
+      if (arguments.length > 1 && arguments[1].head() != null) {
+        href = ((StringValue) arguments[1].head()).getStringValue();  
+      }
+      Sequence bodies = null;
+      if (arguments.length > 2) {
+        bodies = arguments[2];  
+      }
+      
+      PreparedRequest prepared = prepareRequest(requestElem, href, bodies, context);
+      
+      // Execute the request synchronously:
+      try (Response response = prepared.client.newCall(prepared.request).execute()) {
+        return buildResult(prepared, response, context);
+      } catch (InterruptedIOException e) {
+        throw toTimeoutException(e);
+      } catch (XPathException e) {
+        e.setErrorCode("HC001");
+        throw e;
+      } catch (Exception e) {
+        throw new XPathException("An HTTP error occurred: " + e.getMessage(), "HC001");
+      }
+    }
+    
+    /**
+     * Parses the http:request element and builds the OkHttp request and the (variant 
+     * of the profile) client that must execute it. 
+     */
+    protected PreparedRequest prepareRequest(NodeInfo requestNode, String hrefOverride, Sequence bodies, XPathContext context) throws XPathException {
+      NodeInfo requestElem = unwrapNodeInfo(requestNode); 
       String method = requestElem.getAttributeValue("", "method");
       if (StringUtils.isBlank(method)) {
         throw new XPathException("http:request/@method must be specified", "HC005");
@@ -156,14 +210,15 @@ public class SendRequest extends ExtensionFunctionDefinition {
       String overrideMediaType = requestElem.getAttributeValue("", "override-media-type");
       boolean followRedirect = getBoolean(requestElem.getAttributeValue("", "follow-redirect"), true);
       int timeout = getInteger(requestElem.getAttributeValue("", "timeout"), TIMEOUT_DEFAULT);
+      String clientName = StringUtils.trimToNull(requestElem.getAttributeValue("", "client"));
       String proxyHost = requestElem.getAttributeValue("", "proxy-host");
       int proxyPort = getInteger(requestElem.getAttributeValue("", "proxy-port"), 8080);
       String proxyUsername = requestElem.getAttributeValue("", "proxy-username");
       String proxyPassword = requestElem.getAttributeValue("", "proxy-password");
       boolean trustAllCerts = getBoolean(requestElem.getAttributeValue("", "trust-all-certs"), false);
       
-      if (arguments.length > 1 && arguments[1].head() != null) {
-        href = ((StringValue) arguments[1].head()).getStringValue();  
+      if (hrefOverride != null) {
+        href = hrefOverride;  
       }
       if (StringUtils.isBlank(href)) {
         throw new XPathException("href is not specified, not in http:request/@href and not as second function argument", "HC005");
@@ -175,11 +230,6 @@ public class SendRequest extends ExtensionFunctionDefinition {
       }
       */
       
-      Sequence bodies = null;
-      if (arguments.length > 2) {
-        bodies = arguments[2];  
-      }
-      
       RequestBody requestBody = null;
       Request.Builder requestBuilder = new Request.Builder().url(href);
       
@@ -207,97 +257,161 @@ public class SendRequest extends ExtensionFunctionDefinition {
       }
       requestBuilder.method(method.toUpperCase(), requestBody);
       
-      Request request = requestBuilder.build();
+      boolean authentication = StringUtils.isNoneBlank(username);
+      boolean proxyAuthentication = StringUtils.isNoneBlank(proxyUsername) && StringUtils.isNoneBlank(proxyPassword);
+      if (authentication || proxyAuthentication) {
+        // TODO: add digest authentication
+        requestBuilder.tag(BasicCredentials.class, new BasicCredentials(
+            authentication ? username : null, password, 
+            proxyAuthentication ? proxyUsername : null, proxyPassword));
+      }
+      
+      // Parsed response bodies of profiles with a response cache are cached as well:
+      ResponseTreeCache treeCache = getWebApp(context).getHttpResponseTreeCache(clientName);
+      if (treeCache != null) {
+        requestBuilder.tag(ResponseTreeCache.class, treeCache);
+        if (authentication || proxyAuthentication || SharedCacheInterceptor.hasCredentials(requestBuilder.build())) {
+          // The (shared) response cache must not answer requests with credentials: 
+          requestBuilder.cacheControl(CacheControl.FORCE_NETWORK);
+        }
+      }
       
-      OkHttpClient.Builder clientBuilder = client.newBuilder();
+      Request request = requestBuilder.build();
       
-      // Timeouts:
+      /* The settings that are specified on the request are applied to a variant of the 
+       * (profile) client, that shares its connection pool: */
+      StringBuilder variantKey = new StringBuilder();
       if (timeout != TIMEOUT_DEFAULT) {
-        clientBuilder
-          .connectTimeout(timeout, TimeUnit.SECONDS)
-          .writeTimeout(timeout, TimeUnit.SECONDS)
-          .readTimeout(timeout, TimeUnit.SECONDS)
-          .callTimeout(timeout, TimeUnit.SECONDS);
+        variantKey.append("timeout=").append(timeout).append(';');
       }
-      
-      // Redirects: 
       if (!followRedirect) {
-        clientBuilder
-          .followRedirects(false)
-          .followSslRedirects(false);
+        variantKey.append("no-redirect;");
       }
-      
-      // Proxy:
       if (proxyHost != null) {
-        Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
-        clientBuilder.proxy(proxy);
+        variantKey.append("proxy=").append(proxyHost).append(':').append(proxyPort).append(';');
       }
-      
-      // Proxy authentication
-      if (StringUtils.isNoneBlank(proxyUsername) && StringUtils.isNoneBlank(proxyPassword)) {
-        // TODO: add digest authentication
-        clientBuilder.proxyAuthenticator(new Authenticator() {
-          @Override
-          public Request authenticate(Route route, Response response) throws IOException {
-            if (response.request().header("Proxy-Authorization") != null) {
-              return null; // Give up, we've already attempted to authenticate.
-            }
-            String credential = Credentials.basic(proxyUsername, proxyPassword);
-            return response.request().newBuilder().header("Proxy-Authorization", credential).build();
-          }
-        });  
+      if (authentication) {
+        variantKey.append("auth;");
       }
-      
-      // Authentication:
-      if (StringUtils.isNoneBlank(username)) {
-        // TODO: add digest authentication
-        clientBuilder.authenticator(new Authenticator() {    
-          @Override
-          public Request authenticate(Route route, Response response) throws IOException {
-            if (response.request().header("Authorization") != null) {
-              return null; // Give up, we've already attempted to authenticate.
-            }
-            String credential = Credentials.basic(username, password);
-            return response.request().newBuilder().header("Authorization", credential).build();
-          }
-        });
-
+      if (proxyAuthentication) {
+        variantKey.append("proxy-auth;");
       }
-      
-      // Trust all certificates:
       if (trustAllCerts || Context.getInstance().getTrustAllCerts()) {
-        TrustAllCerts.setTrustAllCerts(clientBuilder);
+        variantKey.append("trust-all;");
       }
       
-      ArrayList<Item> resultList = new ArrayList<Item>();
-      
-      OkHttpClient customClient = clientBuilder.build();
-      
-      // Execute the request synchronously:
-      try (Response response = customClient.newCall(request).execute()) {
-       
-        // Build the http:response element:
-        resultList.add(ResponseUtils.buildResponseElement(response, context, getWebApp(context)));
+      Consumer<OkHttpClient.Builder> customizer = clientBuilder -> {
+        // Timeouts:
+        if (timeout != TIMEOUT_DEFAULT) {
+          clientBuilder
+            .connectTimeout(timeout, TimeUnit.SECONDS)
+            .writeTimeout(timeout, TimeUnit.SECONDS)
+            .readTimeout(timeout, TimeUnit.SECONDS)
+            .callTimeout(timeout, TimeUnit.SECONDS);
+        }
         
-        if (!statusOnly) {
-          // Build the response content:
-          resultList.add(ResponseUtils.buildResponseContent(response, context, requestElem, overrideMediaType, getWebApp(context)));
+        // Redirects: 
+        if (!followRedirect) {
+          clientBuilder
+            .followRedirects(false)
+            .followSslRedirects(false);
         }
         
-      } catch (InterruptedIOException e) {
-        if (e instanceof SocketTimeoutException) {
-          throw new XPathException("Socket timeout exception", "HC006");  
-        } else {
-          throw new XPathException("Call timeout exception", "HC006");
+        // Proxy:
+        if (proxyHost != null) {
+          Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
+          clientBuilder.proxy(proxy);
         }
-      } catch (XPathException e) {
-        e.setErrorCode("HC001");
-        throw e;
-      } catch (Exception e) {
-        throw new XPathException("An HTTP error occurred: " + e.getMessage(), "HC001");
+        
+        // Proxy authentication
+        if (proxyAuthentication) {
+          clientBuilder.proxyAuthenticator(proxyAuthenticator);  
+        }
+        
+        // Authentication:
+        if (authentication) {
+          clientBuilder.authenticator(authenticator);
+        }
+        
+        // Trust all certificates:
+        if (trustAllCerts || Context.getInstance().getTrustAllCerts()) {
+          TrustAllCerts.setTrustAllCerts(clientBuilder);
+        }
+      };
+      
+      OkHttpClient customClient;
+      WebApp webApp = getWebApp(context);
+      try {
+        customClient = (variantKey.length() == 0) ? webApp.getHttpClient(clientName) : 
+          webApp.getHttpClient(clientName, variantKey.toString(), customizer);
+      } catch (XSLWebException e) {
+        throw new XPathException(e.getMessage(), "HC005");
+      }
+      
+      return new PreparedRequest(requestElem, request, customClient, statusOnly, overrideMediaType);
+    }
+    
+    /**
+     * Builds the http:response element followed by the response content (unless 
+     * status-only was specified).
+     */
+    protected ZeroOrMore<Item> buildResult(PreparedRequest prepared, Response response, XPathContext context) throws Exception {
+      ArrayList<Item> resultList = new ArrayList<Item>();
+      WebApp webApp = getWebApp(context);
+      
+      if (prepared.request.tag(ResponseTreeCache.class) != null) {
+        webApp.getMetrics().countCacheRequest("http", ResponseTreeCache.isServedFromCache(response));
+      }
+      
+      // Build the http:response element:
+      resultList.add(ResponseUtils.buildResponseElement(response, context, webApp));
+      
+      if (!prepared.statusOnly) {
+        // Build the response content:
+        resultList.add(ResponseUtils.buildResponseContent(response, context, prepared.requestElem, prepared.overrideMediaType, webApp));
       }
       
       return new ZeroOrMore<Item>(resultList.toArray(new Item[resultList.size()]));
+    }
+    
+    protected static XPathException toTimeoutException(InterruptedIOException e) {
+      if (e instanceof SocketTimeoutException) {
+        return new XPathException("Socket timeout exception", "HC006");  
+      } 
+      return new XPathException("Call timeout exception", "HC006");
+    }
+    
+    protected static class PreparedRequest {
+      
+      protected final NodeInfo requestElem;
+      protected final Request request;
+      protected final OkHttpClient client;
+      protected final boolean statusOnly;
+      protected final String overrideMediaType;
+      
+      protected PreparedRequest(NodeInfo requestElem, Request request, OkHttpClient client, boolean statusOnly, String overrideMediaType) {
+        this.requestElem = requestElem;
+        this.request = request;
+        this.client = client;
+        this.statusOnly = statusOnly;
+        this.overrideMediaType = overrideMediaType;
+      }
+      
+    }
+    
+    private static class BasicCredentials {
+      
+      private final String username;
+      private final String password;
+      private final String proxyUsername;
+      private final String proxyPassword;
+      
+      public BasicCredentials(String username, String password, String proxyUsername, String proxyPassword) {
+        this.username = username;
+        this.password = password;
+        this.proxyUsername = proxyUsername;
+        this.proxyPassword = proxyPassword;
+      }
       
     }
     
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.httpclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.ma.arrays.ArrayItemType;
+import net.sf.saxon.ma.arrays.SimpleArrayItem;
+import net.sf.saxon.ma.map.MapItem;
+import net.sf.saxon.ma.map.MapType;
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.om.ZeroOrMore;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Executes a sequence of http:request elements concurrently and returns an array 
+ * per request (containing the http:response element and the response content) in 
+ * the order of the requests.
+ */
+public class SendRequests extends ExtensionFunctionDefinition {
+  
+  public static final StructuredQName qName = new StructuredQName("", Types.EXT_NAMESPACEURI, "send-requests");
+  
+  private static final int MAX_CONCURRENCY_DEFAULT = 8;
+  
+  @Override
+  public StructuredQName getFunctionQName() {
+    return qName;
+  }
+
+  @Override
+  public int getMinimumNumberOfArguments() {
+    return 1;
+  }
+
+  @Override
+  public int getMaximumNumberOfArguments() {
+    return 2;
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes() {
+    return new SequenceType[] { SequenceType.NODE_SEQUENCE, SequenceType.makeSequenceType(MapType.ANY_MAP_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE) };
+  }
+
+  @Override
+  public SequenceType getResultType(SequenceType[] suppliedArgumentTypes) {
+    return SequenceType.makeSequenceType(ArrayItemType.ANY_ARRAY_TYPE, StaticProperty.ALLOWS_ZERO_OR_MORE);
+  }
+  
+  @Override
+  public boolean hasSideEffects() {    
+    return true;
+  }
+
+  @Override
+  public ExtensionFunctionCall makeCallExpression() {
+    return new SendRequestsCall();
+  }
+  
+  private static class SendRequestsCall extends SendRequest.SendRequestCall {
+    
+    @Override
+    public ZeroOrMore<Item> call(XPathContext context, Sequence[] arguments) throws XPathException {
+      int maxConcurrency = MAX_CONCURRENCY_DEFAULT;
+      long timeout = 0;
+      MapItem options = (arguments.length > 1) ? (MapItem) arguments[1].head() : null;
+      if (options != null) {
+        Sequence value = options.get(new StringValue("max-concurrency"));
+        if (value != null && value.head() instanceof NumericValue) {
+          maxConcurrency = Math.max(1, (int) ((NumericValue) value.head()).longValue());
+        }
+        value = options.get(new StringValue("timeout"));
+        if (value != null && value.head() instanceof NumericValue) {
+          timeout = (long) (((NumericValue) value.head()).getDoubleValue() * 1000);
+        }
+      }
+      
+      // Parse all requests up front, so invalid requests are reported before anything is sent:
+      List<PreparedRequest> prepared = new ArrayList<PreparedRequest>();
+      SequenceIterator iter = arguments[0].iterate();
+      Item item;
+      while ((item = iter.next()) != null) {
+        prepared.add(prepareRequest((NodeInfo) item, null, null, context));
+      }
+      
+      int count = prepared.size();
+      Response[] responses = new Response[count];
+      Exception[] failures = new Exception[count];
+      Call[] calls = new Call[count];
+      CountDownLatch latch = new CountDownLatch(count);
+      Semaphore permits = new Semaphore(maxConcurrency);
+      long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+      
+      try {
+        try {
+          for (int i = 0; i < count; i++) {
+            if (!acquire(permits, deadline)) {
+              throw new XPathException("Deadline of http:send-requests exceeded", "HC006");
+            }
+            final int index = i;
+            final PreparedRequest req = prepared.get(i);
+            calls[i] = req.client.newCall(req.request);
+            calls[i].enqueue(new Callback() {
+              
+              @Override
+              public void onResponse(Call call, Response response) {
+                try {
+                  if (req.statusOnly) {
+                    response.close();
+                    responses[index] = response;
+                  } else {
+                    /* Read the body on the dispatcher thread, the tree is built on the 
+                     * calling thread afterwards: */
+                    try (ResponseBody body = response.body()) {
+                      ResponseBody buffered = ResponseBody.create(body.bytes(), body.contentType());
+                      responses[index] = response.newBuilder().body(buffered).build();
+                    }
+                  }
+                } catch (Exception e) {
+                  failures[index] = e;
+                } finally {
+                  permits.release();
+                  latch.countDown();
+                }
+              }
+              
+              @Override
+              public void onFailure(Call call, IOException e) {
+                failures[index] = e;
+                permits.release();
+                latch.countDown();
+              }
+              
+            });
+          }
+          if (!await(latch, deadline)) {
+            throw new XPathException("Deadline of http:send-requests exceeded", "HC006");
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new XPathException("Interrupted while waiting for HTTP responses", "HC001");
+        }
+      } catch (XPathException e) {
+        for (Call call : calls) {
+          if (call != null) {
+            call.cancel();
+          }
+        }
+        throw e;
+      }
+      
+      // Build the results in the order of the requests:
+      Item[] results = new Item[count];
+      for (int i = 0; i < count; i++) {
+        Exception failure = failures[i];
+        if (failure instanceof InterruptedIOException) {
+          throw toTimeoutException((InterruptedIOException) failure);
+        } else if (failure != null) {
+          throw new XPathException("An HTTP error occurred: " + failure.getMessage(), "HC001");
+        }
+        try (Response response = responses[i]) {
+          List<GroundedValue> members = new ArrayList<GroundedValue>();
+          SequenceIterator memberIter = buildResult(prepared.get(i), response, context).iterate();
+          Item member;
+          while ((member = memberIter.next()) != null) {
+            members.add(member);
+          }
+          results[i] = new SimpleArrayItem(members);
+        } catch (XPathException e) {
+          e.setErrorCode("HC001");
+          throw e;
+        } catch (Exception e) {
+          throw new XPathException("An HTTP error occurred: " + e.getMessage(), "HC001");
+        }
+      }
+      return new ZeroOrMore<Item>(results);
+    }
+    
+    private boolean acquire(Semaphore permits, long deadline) throws InterruptedException {
+      if (deadline == 0) {
+        permits.acquire();
+        return true;
+      }
+      return permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+    
+    private boolean await(CountDownLatch latch, long deadline) throws InterruptedException {
+      if (deadline == 0) {
+        latch.await();
+        return true;
+      }
+      return latch.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+    
+  }
+  
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.httpclient;
+
+import java.io.IOException;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Network interceptor that makes the response cache of an http-client profile behave 
+ * as a shared cache (RFC 7234, section 3.2): the cache is used for the requests of all 
+ * users of a webapp, while OkHttp implements a private cache. Responses that are 
+ * marked private, and responses to requests with credentials that are not explicitly 
+ * marked shareable (public, s-maxage or must-revalidate), are marked no-store so 
+ * OkHttp does not store them.
+ */
+public class SharedCacheInterceptor implements Interceptor {
+  
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    Response response = chain.proceed(request);
+    if (!isStorable(request, response)) {
+      return response.newBuilder().addHeader("Cache-Control", "no-store").build();
+    }
+    return response;
+  }
+  
+  /**
+   * Returns true when the request carries (proxy) credentials in its headers. 
+   */
+  public static boolean hasCredentials(Request request) {
+    return request.header("Authorization") != null || request.header("Proxy-Authorization") != null;
+  }
+  
+  /**
+   * Returns true when a shared cache may store the response to request.
+   */
+  public static boolean isStorable(Request request, Response response) {
+    CacheControl cacheControl = response.cacheControl();
+    if (cacheControl.noStore() || cacheControl.isPrivate()) {
+      return false;
+    }
+    if (hasCredentials(request)) {
+      return cacheControl.isPublic() || cacheControl.sMaxAgeSeconds() != -1 || cacheControl.mustRevalidate();
+    }
+    return true;
+  }
+  
+}
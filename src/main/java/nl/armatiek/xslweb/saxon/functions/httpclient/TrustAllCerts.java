@@ -21,6 +21,7 @@ import java.security.cert.X509Certificate;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -53,10 +54,14 @@ public class TrustAllCerts {
   };
   
   private static SSLContext sslContext;
+  /* One socket factory instance is shared, because OkHttp only reuses pooled connections 
+   * for calls with the same (equal) socket factory: */
+  private static SSLSocketFactory sslSocketFactory;
   static {
     try {
       sslContext = SSLContext.getInstance("SSL");
       sslContext.init(null, trustAllTrustManager, new java.security.SecureRandom());
+      sslSocketFactory = sslContext.getSocketFactory();
     } catch (Exception e) {
       //
     }
@@ -64,7 +69,7 @@ public class TrustAllCerts {
   
   public static void setTrustAllCerts(final OkHttpClient.Builder clientBuilder) {
     clientBuilder
-      .sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager) trustAllTrustManager[0])
+      .sslSocketFactory(sslSocketFactory, (X509TrustManager) trustAllTrustManager[0])
       .hostnameVerifier(trustAllHostnameVerifier);
   }
 
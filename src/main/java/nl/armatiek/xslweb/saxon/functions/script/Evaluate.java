@@ -25,11 +25,13 @@ import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.JavaExternalObjectType;
+import net.sf.saxon.value.BooleanValue;
 import net.sf.saxon.value.EmptySequence;
 import net.sf.saxon.value.ObjectValue;
 import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.StringValue;
 import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.ScriptEnginePool;
 import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
 import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionDefinition;
 
@@ -59,14 +61,15 @@ public class Evaluate extends ExtensionFunctionDefinition {
 
   @Override
   public int getMaximumNumberOfArguments() {
-    return 2;
+    return 3;
   }
 
   @Override
   public SequenceType[] getArgumentTypes() {
     return new SequenceType[] {
         SequenceType.makeSequenceType(new JavaExternalObjectType(configuration, ScriptEngine.class), StaticProperty.ALLOWS_ONE),
-        SequenceType.SINGLE_STRING 
+        SequenceType.SINGLE_STRING,
+        SequenceType.SINGLE_BOOLEAN
     };
   }
 
@@ -88,7 +91,13 @@ public class Evaluate extends ExtensionFunctionDefinition {
         @SuppressWarnings("unchecked")
         ScriptEngine engine = ((ObjectValue<ScriptEngine>) arguments[0].head()).getObject();
         String script = ((StringValue) arguments[1].head()).getStringValue();        
-        engine.eval(script);
+        boolean init = (arguments.length > 2) && ((BooleanValue) arguments[2].head()).getBooleanValue();
+        ScriptEnginePool pool = getWebApp(context).getScriptEnginePool(engine);
+        if (pool != null) {
+          pool.evaluate(engine, script, init);
+        } else {
+          engine.eval(script);
+        }
         return EmptySequence.getInstance();
       } catch (Exception e) {
         throw new XPathException("Error evaluating script", e);
@@ -16,9 +16,11 @@
  */
 package nl.armatiek.xslweb.saxon.functions.script;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.script.ScriptEngine;
+import javax.servlet.http.HttpServletRequest;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.StaticProperty;
@@ -33,6 +35,7 @@ import net.sf.saxon.value.ObjectValue;
 import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.StringValue;
 import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.ScriptEnginePool;
 import nl.armatiek.xslweb.configuration.WebApp;
 import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
 import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionDefinition;
@@ -92,9 +95,24 @@ public class GetScriptEngine extends ExtensionFunctionDefinition {
       try {
         String instanceName = ((StringValue) arguments[0].head()).getStringValue();
         String engineName = (arguments.length > 1) ? ((StringValue) arguments[1].head()).getStringValue() : "JavaScript"; 
-        WebApp webapp = getWebApp(context);
-        Map<String, Object> extraBindings = (arguments.length > 2) ? SaxonUtils.trieMapToMap((MapItem) arguments[2].head()) : null;
-        return new ObjectValue<ScriptEngine>(webapp.getScriptEngine(instanceName, engineName, extraBindings));        
+        HttpServletRequest request = getRequest(context);
+        @SuppressWarnings("unchecked")
+        Map<String, ScriptEngine> engines = (Map<String, ScriptEngine>) request.getAttribute("xslweb-script-engines");
+        if (engines == null) {
+          engines = new HashMap<String, ScriptEngine>();
+          request.setAttribute("xslweb-script-engines", engines);
+        }
+        ScriptEngine engine = engines.get(instanceName);
+        if (engine == null) {
+          WebApp webapp = getWebApp(context);
+          Map<String, Object> extraBindings = (arguments.length > 2) ? SaxonUtils.trieMapToMap((MapItem) arguments[2].head()) : null;
+          ScriptEnginePool pool = webapp.getScriptEnginePool(instanceName, engineName, extraBindings);
+          final ScriptEngine borrowedEngine = pool.borrow();
+          addCloseable(() -> pool.release(borrowedEngine), context);
+          engines.put(instanceName, borrowedEngine);
+          engine = borrowedEngine;
+        }
+        return new ObjectValue<ScriptEngine>(engine);        
       } catch (Exception e) {
         throw new XPathException("Could not get script engine", e);
       }
@@ -23,7 +23,6 @@ import java.util.Map;
 
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.lib.ExtensionFunctionDefinition;
@@ -39,6 +38,7 @@ import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.StringValue;
 import nl.armatiek.xslweb.configuration.Context;
 import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.ScriptEnginePool;
 import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
 
 /**
@@ -92,15 +92,7 @@ public class Invoke extends ExtensionFunctionDefinition {
   
   private static class InvokeCall extends ExtensionFunctionCall {
     
-    private static ScriptEngine engine;
-    
-    private synchronized ScriptEngine getScriptEngine() {
-      if (engine == null) {
-        ScriptEngineManager factory = new ScriptEngineManager();
-        engine = factory.getEngineByName("nashorn");
-      }
-      return engine;
-    }
+    private static final String POOL_NAME = "xslweb-script-invoke";
     
     private Object[] sequenceToObjectArray(Sequence seq) throws XPathException {
       ArrayList<Object> objectList = new ArrayList<Object>();
@@ -130,10 +122,16 @@ public class Invoke extends ExtensionFunctionDefinition {
           args.add(sequenceToObjectArray(seq));          
         }
         
-        ScriptEngine engine = getScriptEngine();
-        engine.eval(script);
-        Invocable inv = (Invocable) engine;                                              
-        Object result = inv.invokeFunction(functionName, args.toArray(new Object[args.size()]));
+        ScriptEnginePool pool = getWebApp(context).getScriptEnginePool(POOL_NAME, "nashorn", null);
+        ScriptEngine engine = pool.borrow();
+        Object result;
+        try {
+          pool.evaluate(engine, script, false);
+          Invocable inv = (Invocable) engine;                                              
+          result = inv.invokeFunction(functionName, args.toArray(new Object[args.size()]));
+        } finally {
+          pool.release(engine);
+        }
         
         if (result instanceof Collection) { /* Rhino */
           ArrayList<AtomicValue> valueList = new ArrayList<AtomicValue>();
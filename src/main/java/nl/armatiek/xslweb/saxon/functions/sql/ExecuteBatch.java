@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.om.ZeroOrMore;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.JavaExternalObjectType;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.ObjectValue;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
+import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionDefinition;
+
+/**
+ * XPath extension function class
+ */
+public class ExecuteBatch extends ExtensionFunctionDefinition {
+
+  private static final StructuredQName qName = 
+      new StructuredQName("", Definitions.NAMESPACEURI_XSLWEB_FX_SQL, "execute-batch");
+  
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+
+  public ExecuteBatch(Configuration configuration) {
+    super(configuration);
+  }
+  
+  @Override
+  public StructuredQName getFunctionQName() {
+    return qName;
+  }
+
+  @Override
+  public int getMinimumNumberOfArguments() {
+    return 3;
+  }
+
+  @Override
+  public int getMaximumNumberOfArguments() {
+    return 4;
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes() {
+    return new SequenceType[] {
+        SequenceType.makeSequenceType(new JavaExternalObjectType(configuration, Connection.class), StaticProperty.ALLOWS_ONE),
+        SequenceType.SINGLE_STRING,
+        SequenceType.ANY_SEQUENCE,
+        SequenceType.SINGLE_INTEGER
+    };
+  }
+
+  @Override
+  public SequenceType getResultType(SequenceType[] suppliedArgumentTypes) {
+    return SequenceType.makeSequenceType(BuiltInAtomicType.INTEGER, StaticProperty.ALLOWS_ZERO_OR_MORE);
+  }
+
+  @Override
+  public ExtensionFunctionCall makeCallExpression() {
+    return new ExecuteBatchCall();
+  }
+  
+  private static class ExecuteBatchCall extends ExtensionFunctionCall {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Sequence call(XPathContext context, Sequence[] arguments) throws XPathException {            
+      String sql = null;
+      try {
+        Connection con = ((ObjectValue<Connection>) arguments[0].head()).getObject();
+        sql = ((StringValue) arguments[1].head()).getStringValue();
+        int batchSize = DEFAULT_BATCH_SIZE;
+        if (arguments.length > 3) {
+          batchSize = Math.max(1, (int) ((IntegerValue) arguments[3].head()).longValue());
+        }
+        List<Int64Value> updateCounts = new ArrayList<Int64Value>();
+        SequenceIterator rows = arguments[2].iterate();
+        Item row = rows.next();
+        if (row == null) {
+          return new ZeroOrMore<Int64Value>(updateCounts.toArray(new Int64Value[updateCounts.size()]));
+        }
+        /* Every row is an array, map or single item holding the parameters of one execution
+         * of the statement; the rows are sent to the database in batches of batchSize: */
+        StatementParameters params = StatementParameters.forSQL(sql, row);
+        try (PreparedStatement stmt = con.prepareStatement(params.getSQL())) {
+          int count = 0;
+          do {
+            params.bind(stmt, row);
+            stmt.addBatch();
+            if (++count % batchSize == 0) {
+              addUpdateCounts(stmt.executeBatch(), updateCounts);
+            }
+          } while ((row = rows.next()) != null);
+          if (count % batchSize != 0) {
+            addUpdateCounts(stmt.executeBatch(), updateCounts);
+          }
+        }
+        return new ZeroOrMore<Int64Value>(updateCounts.toArray(new Int64Value[updateCounts.size()]));
+      } catch (Exception e) {
+        throw new XPathException("Error executing batch update query \"" + sql + "\"", e);
+      }
+    }
+    
+    private void addUpdateCounts(int[] counts, List<Int64Value> updateCounts) {
+      for (int count : counts) {
+        updateCounts.add(new Int64Value(count));
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ package nl.armatiek.xslweb.saxon.functions.sql;
  */
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -63,14 +64,15 @@ public class ExecuteQuery extends ExtensionFunctionDefinition {
 
   @Override
   public int getMaximumNumberOfArguments() {
-    return 2;
+    return 3;
   }
 
   @Override
   public SequenceType[] getArgumentTypes() {
     return new SequenceType[] {
         SequenceType.makeSequenceType(new JavaExternalObjectType(configuration, Connection.class), StaticProperty.ALLOWS_ONE),
-        SequenceType.SINGLE_STRING 
+        SequenceType.SINGLE_STRING,
+        SequenceType.ANY_SEQUENCE
     };
   }
 
@@ -96,9 +98,18 @@ public class ExecuteQuery extends ExtensionFunctionDefinition {
         Statement stmt = null;        
         ResultSet rset = null;
         try {
-          stmt = con.createStatement();          
-          rset = stmt.executeQuery(sql);
-        } catch (SQLException se) {          
+          if (arguments.length > 2) {
+            /* Prepared statements are reused when the datasource has a statement cache: */
+            StatementParameters params = StatementParameters.forSQL(sql, arguments[2]);
+            PreparedStatement pstmt = con.prepareStatement(params.getSQL());
+            stmt = pstmt;
+            params.bind(pstmt, arguments[2]);
+            rset = pstmt.executeQuery();
+          } else {
+            stmt = con.createStatement();          
+            rset = stmt.executeQuery(sql);
+          }
+        } catch (SQLException | XPathException se) {          
           if (stmt != null) {
             stmt.close();            
           }
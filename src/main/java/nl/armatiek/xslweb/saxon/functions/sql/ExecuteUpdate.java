@@ -18,6 +18,7 @@ package nl.armatiek.xslweb.saxon.functions.sql;
  */
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -62,14 +63,15 @@ public class ExecuteUpdate extends ExtensionFunctionDefinition {
 
   @Override
   public int getMaximumNumberOfArguments() {
-    return 2;
+    return 3;
   }
 
   @Override
   public SequenceType[] getArgumentTypes() {
     return new SequenceType[] {
         SequenceType.makeSequenceType(new JavaExternalObjectType(configuration, Connection.class), StaticProperty.ALLOWS_ONE),
-        SequenceType.SINGLE_STRING 
+        SequenceType.SINGLE_STRING,
+        SequenceType.ANY_SEQUENCE
     };
   }
 
@@ -92,6 +94,15 @@ public class ExecuteUpdate extends ExtensionFunctionDefinition {
       try {
         Connection con = ((ObjectValue<Connection>) arguments[0].head()).getObject();
         sql = ((StringValue) arguments[1].head()).getStringValue();        
+        if (arguments.length > 2) {
+          /* Prepared statements are reused when the datasource has a statement cache, so
+           * the statement is closed (returned to the cache) right away: */
+          StatementParameters params = StatementParameters.forSQL(sql, arguments[2]);
+          try (PreparedStatement pstmt = con.prepareStatement(params.getSQL())) {
+            params.bind(pstmt, arguments[2]);
+            return Int64Value.makeIntegerValue(pstmt.executeUpdate());
+          }
+        }
         Statement stmt = null;
         int result;
         try {
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.SequenceCollector;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.parser.Loc;
+import net.sf.saxon.ma.map.HashTrieMap;
+import net.sf.saxon.ma.map.MapItem;
+import net.sf.saxon.ma.map.MapType;
+import net.sf.saxon.om.AttributeInfo;
+import net.sf.saxon.om.AttributeMap;
+import net.sf.saxon.om.EmptyAttributeMap;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.LazySequence;
+import net.sf.saxon.om.NamespaceMap;
+import net.sf.saxon.om.NoNamespaceName;
+import net.sf.saxon.om.NodeName;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.SingletonAttributeMap;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.JavaExternalObjectType;
+import net.sf.saxon.type.Untyped;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.EmptySequence;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.ObjectValue;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
+import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionDefinition;
+
+/**
+ * XPath extension function class
+ */
+public class QueryRows extends ExtensionFunctionDefinition {
+
+  private static final StructuredQName qName = 
+      new StructuredQName("", Definitions.NAMESPACEURI_XSLWEB_FX_SQL, "query-rows");
+  
+  private static final int DEFAULT_FETCH_SIZE = 1000;
+
+  public QueryRows(Configuration configuration) {
+    super(configuration);
+  }  
+  
+  @Override
+  public StructuredQName getFunctionQName() {
+    return qName;
+  }
+
+  @Override
+  public int getMinimumNumberOfArguments() {
+    return 2;
+  }
+
+  @Override
+  public int getMaximumNumberOfArguments() {
+    return 4;
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes() {
+    return new SequenceType[] {
+        SequenceType.makeSequenceType(new JavaExternalObjectType(configuration, Connection.class), StaticProperty.ALLOWS_ONE),
+        SequenceType.SINGLE_STRING,
+        SequenceType.ANY_SEQUENCE,
+        SequenceType.makeSequenceType(MapType.ANY_MAP_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE)
+    };
+  }
+
+  @Override
+  public SequenceType getResultType(SequenceType[] suppliedArgumentTypes) {
+    return SequenceType.ANY_SEQUENCE;
+  }
+  
+  @Override
+  public boolean hasSideEffects() {
+    return true;
+  }
+
+  @Override
+  public ExtensionFunctionCall makeCallExpression() {
+    return new QueryRowsCall();
+  }
+  
+  private static class QueryRowsCall extends ExtensionFunctionCall {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Sequence call(XPathContext context, Sequence[] arguments) throws XPathException {            
+      String sql = null;
+      try {
+        Connection con = ((ObjectValue<Connection>) arguments[0].head()).getObject();
+        sql = ((StringValue) arguments[1].head()).getStringValue();
+        Sequence parameters = (arguments.length > 2) ? arguments[2] : EmptySequence.getInstance();
+        MapItem options = (arguments.length > 3) ? (MapItem) arguments[3].head() : null;
+        int fetchSize = DEFAULT_FETCH_SIZE;
+        boolean asMaps = false;
+        if (options != null) {
+          Sequence value = options.get(new StringValue("fetch-size"));
+          if (value != null && value.head() instanceof IntegerValue) {
+            fetchSize = (int) ((IntegerValue) value.head()).longValue();
+          }
+          value = options.get(new StringValue("format"));
+          if (value != null && value.head() != null) {
+            String format = value.head().getStringValue();
+            if (!format.equals("element") && !format.equals("map")) {
+              throw new XPathException("Invalid value for option \"format\": \"" + format + "\"");
+            }
+            asMaps = format.equals("map");
+          }
+        }
+        StatementParameters params = StatementParameters.forSQL(sql, parameters);
+        PreparedStatement stmt = con.prepareStatement(params.getSQL(), 
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ResultSet rset;
+        try {
+          stmt.setFetchSize(fetchSize);
+          params.bind(stmt, parameters);
+          rset = stmt.executeQuery();
+        } catch (SQLException | XPathException e) {
+          stmt.close();
+          throw e;
+        }
+        /* The statement and resultset are closed when the sequence is fully read, or at 
+         * the end of the pipeline when it is not: */
+        addCloseable(new CloseableAutoCloseableWrapper(stmt), context);
+        addCloseable(new CloseableAutoCloseableWrapper(rset), context);
+        return new LazySequence(new RowIterator(stmt, rset, asMaps, context));        
+      } catch (XPathException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new XPathException("Error executing query \"" + sql + "\"", e);
+      }
+    }
+    
+    /**
+     * Iterator that reads the next row from the resultset only when the next item of 
+     * the sequence is asked for, so only one row is held in memory at a time.
+     */
+    private class RowIterator implements SequenceIterator {
+      
+      private final PreparedStatement stmt;
+      private final ResultSet rset;
+      private final boolean asMaps;
+      private final XPathContext context;
+      private final int columnCount;
+      private final StringValue[] columnKeys;
+      private final AttributeMap[] columnAttributes;
+      private final NodeName rowName = new NoNamespaceName("row");
+      private final NodeName colName = new NoNamespaceName("col");
+      private boolean closed;
+      
+      public RowIterator(PreparedStatement stmt, ResultSet rset, boolean asMaps, XPathContext context) throws SQLException {
+        this.stmt = stmt;
+        this.rset = rset;
+        this.asMaps = asMaps;
+        this.context = context;
+        /* The column metadata is only read once: */
+        ResultSetMetaData metaData = rset.getMetaData();
+        this.columnCount = metaData.getColumnCount();
+        this.columnKeys = new StringValue[columnCount];
+        this.columnAttributes = new AttributeMap[columnCount];
+        NodeName nameName = new NoNamespaceName("name");
+        for (int col = 1; col <= columnCount; col++) {
+          String columnName = metaData.getColumnLabel(col);
+          columnKeys[col-1] = new StringValue(columnName);
+          columnAttributes[col-1] = SingletonAttributeMap.of(new AttributeInfo(nameName, 
+              BuiltInAtomicType.UNTYPED_ATOMIC, columnName, Loc.NONE, 0));
+        }
+      }
+
+      @Override
+      public Item next() throws XPathException {
+        if (closed) {
+          return null;
+        }
+        try {
+          if (!rset.next()) {
+            close();
+            return null;
+          }
+          return asMaps ? makeMap() : makeElement();
+        } catch (XPathException e) {
+          close();
+          throw e;
+        } catch (Exception e) {
+          close();
+          throw new XPathException("Error reading row from resultset", e);
+        }
+      }
+      
+      private Item makeMap() throws Exception {
+        HashTrieMap map = new HashTrieMap();
+        for (int col = 1; col <= columnCount; col++) {
+          AtomicValue value = convertJavaObjectToAtomicValue(rset.getObject(col));
+          map.initialPut(columnKeys[col-1], (value != null) ? value : EmptySequence.getInstance());
+        }
+        return map;
+      }
+      
+      private Item makeElement() throws Exception {
+        SequenceCollector out = context.getController().allocateSequenceOutputter(1);
+        out.startElement(rowName, Untyped.getInstance(), EmptyAttributeMap.getInstance(), NamespaceMap.emptyMap(), Loc.NONE, 0);
+        for (int col = 1; col <= columnCount; col++) {
+          out.startElement(colName, Untyped.getInstance(), columnAttributes[col-1], NamespaceMap.emptyMap(), Loc.NONE, 0);           
+          String value = rset.getString(col);
+          if (value != null) {            
+            out.characters(value, null, 0);
+          }
+          out.endElement();
+        }
+        out.endElement();
+        return out.getSequence().head();
+      }
+
+      @Override
+      public void close() {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        try {
+          rset.close();
+          stmt.close();
+        } catch (SQLException e) {
+          /* Closed again at the end of the pipeline */
+        }
+      }
+      
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.saxon.ma.arrays.ArrayItem;
+import net.sf.saxon.ma.map.KeyValuePair;
+import net.sf.saxon.ma.map.MapItem;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.Base64BinaryValue;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DateTimeValue;
+import net.sf.saxon.value.DateValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.FloatValue;
+import net.sf.saxon.value.HexBinaryValue;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.ObjectValue;
+import net.sf.saxon.value.StringValue;
+import net.sf.saxon.value.TimeValue;
+
+/**
+ * Binds XPath values to the parameters of a {@link PreparedStatement}. Parameters can be 
+ * specified as a sequence of items or an array (bound by position) or as a map. A map 
+ * with integer keys is bound by position, a map with string keys is bound by name to 
+ * the named parameters (<code>:name</code>) in the SQL statement.
+ */
+public class StatementParameters {
+  
+  private final String sql;
+  private final List<String> names;
+  
+  private StatementParameters(String sql, List<String> names) {
+    this.sql = sql;
+    this.names = names;
+  }
+  
+  /**
+   * Returns the statement parameters for <code>sql</code>, given the (first set of) 
+   * parameters that will be bound to it. Named parameters are only replaced by 
+   * positional parameters when the parameters are specified as a map with string keys.  
+   */
+  public static StatementParameters forSQL(String sql, Sequence parameters) throws XPathException {
+    Item item = getSingleItem(parameters);
+    if (item instanceof MapItem && hasNamedKeys((MapItem) item)) {
+      return parseNamedParameters(sql);
+    }
+    return new StatementParameters(sql, Collections.<String>emptyList());
+  }
+  
+  /**
+   * Returns the SQL statement to prepare, with named parameters replaced by question marks.
+   */
+  public String getSQL() {
+    return sql;
+  }
+  
+  public void bind(PreparedStatement stmt, Sequence parameters) throws XPathException, SQLException {
+    Item item = getSingleItem(parameters);
+    if (item instanceof MapItem) {
+      MapItem map = (MapItem) item;
+      if (!names.isEmpty()) {
+        for (int i=0; i<names.size(); i++) {
+          Sequence value = map.get(new StringValue(names.get(i)));
+          if (value == null) {
+            throw new XPathException("No value specified for SQL parameter \":" + names.get(i) + "\"");
+          }
+          setParameter(stmt, i+1, value);
+        }
+      } else {
+        for (KeyValuePair pair : map.keyValuePairs()) {
+          if (!(pair.key instanceof IntegerValue)) {
+            throw new XPathException("The keys of a map of positional SQL parameters must be integers");
+          }
+          setParameter(stmt, (int) ((IntegerValue) pair.key).longValue(), pair.value);
+        }
+      }
+    } else if (item instanceof ArrayItem) {
+      ArrayItem array = (ArrayItem) item;
+      for (int i=0; i<array.arrayLength(); i++) {
+        setParameter(stmt, i+1, array.get(i));
+      }
+    } else {
+      SequenceIterator iter = parameters.iterate();
+      Item param;
+      int index = 1;
+      while ((param = iter.next()) != null) {
+        setParameter(stmt, index++, param);
+      }
+    }
+  }
+  
+  private static Item getSingleItem(Sequence parameters) throws XPathException {
+    SequenceIterator iter = parameters.iterate();
+    Item first = iter.next();
+    if (first == null || iter.next() != null) {
+      return null;
+    }
+    return first;
+  }
+  
+  private static boolean hasNamedKeys(MapItem map) {
+    for (KeyValuePair pair : map.keyValuePairs()) {
+      if (!(pair.key instanceof IntegerValue)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private static StatementParameters parseNamedParameters(String sql) {
+    StringBuilder sb = new StringBuilder(sql.length());
+    List<String> names = new ArrayList<String>();
+    int len = sql.length();
+    int i = 0;
+    while (i < len) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"') {
+        /* Copy quoted literals and identifiers unchanged: */
+        int end = sql.indexOf(c, i+1);
+        end = (end == -1) ? len : end+1;
+        sb.append(sql, i, end);
+        i = end;
+      } else if (c == '-' && i+1 < len && sql.charAt(i+1) == '-') {
+        /* Copy line comments unchanged: */
+        int end = sql.indexOf('\n', i+2);
+        end = (end == -1) ? len : end+1;
+        sb.append(sql, i, end);
+        i = end;
+      } else if (c == '/' && i+1 < len && sql.charAt(i+1) == '*') {
+        /* Copy block comments unchanged: */
+        int end = sql.indexOf("*/", i+2);
+        end = (end == -1) ? len : end+2;
+        sb.append(sql, i, end);
+        i = end;
+      } else if (c == ':' && i+1 < len && sql.charAt(i+1) == ':') {
+        /* PostgreSQL style type cast: */
+        sb.append("::");
+        i += 2;
+      } else if (c == ':' && i+1 < len && isNameStart(sql.charAt(i+1))) {
+        int end = i+2;
+        while (end < len && isNamePart(sql.charAt(end))) {
+          end++;
+        }
+        names.add(sql.substring(i+1, end));
+        sb.append('?');
+        i = end;
+      } else {
+        sb.append(c);
+        i++;
+      }
+    }
+    return new StatementParameters(sb.toString(), names);
+  }
+  
+  private static boolean isNameStart(char c) {
+    return Character.isLetter(c) || c == '_';
+  }
+  
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+  
+  /* 
+   * Not all drivers accept Types.NULL for setNull (Oracle and older SQL Server drivers 
+   * don't), so the type of the parameter is taken from the statement's metadata when the 
+   * driver supports it. 
+   */
+  private static int getParameterType(PreparedStatement stmt, int index) {
+    try {
+      return stmt.getParameterMetaData().getParameterType(index);
+    } catch (SQLException e) {
+      return Types.VARCHAR;
+    }
+  }
+  
+  private static void setParameter(PreparedStatement stmt, int index, Sequence value) throws XPathException, SQLException {
+    Item item = value.head();
+    if (item == null) {
+      stmt.setNull(index, getParameterType(stmt, index));
+    } else if (item instanceof NodeInfo) {
+      stmt.setString(index, item.getStringValue());
+    } else if (item instanceof ObjectValue) {
+      stmt.setObject(index, ((ObjectValue<?>) item).getObject());
+    } else if (item instanceof BooleanValue) {
+      stmt.setBoolean(index, ((BooleanValue) item).getBooleanValue());
+    } else if (item instanceof Int64Value) {
+      stmt.setLong(index, ((Int64Value) item).longValue());
+    } else if (item instanceof DoubleValue) {
+      stmt.setDouble(index, ((DoubleValue) item).getDoubleValue());
+    } else if (item instanceof FloatValue) {
+      stmt.setFloat(index, ((FloatValue) item).getFloatValue());
+    } else if (item instanceof NumericValue) {
+      stmt.setBigDecimal(index, ((NumericValue) item).getDecimalValue());
+    } else if (item instanceof DateTimeValue) {
+      stmt.setTimestamp(index, new Timestamp(((DateTimeValue) item).getCalendar().getTimeInMillis()));
+    } else if (item instanceof DateValue) {
+      DateValue date = (DateValue) item;
+      stmt.setDate(index, java.sql.Date.valueOf(LocalDate.of(date.getYear(), date.getMonth(), date.getDay())));
+    } else if (item instanceof TimeValue) {
+      TimeValue time = (TimeValue) item;
+      java.sql.Time sqlTime = java.sql.Time.valueOf(LocalTime.of(time.getHour(), time.getMinute(), time.getSecond()));
+      sqlTime.setTime(sqlTime.getTime() + time.getMicrosecond() / 1000); // Time.valueOf() drops fractional seconds
+      stmt.setTime(index, sqlTime);
+    } else if (item instanceof Base64BinaryValue) {
+      stmt.setBytes(index, ((Base64BinaryValue) item).getBinaryValue());
+    } else if (item instanceof HexBinaryValue) {
+      stmt.setBytes(index, ((HexBinaryValue) item).getBinaryValue());
+    } else if (item instanceof AtomicValue) {
+      stmt.setString(index, item.getStringValue());
+    } else {
+      throw new XPathException("Value of SQL parameter " + index + " must be an atomic value or node");
+    }
+  }
+  
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.saxon.functions.webapp;
+
+import java.util.ArrayList;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.EmptySequence;
+import net.sf.saxon.value.SequenceType;
+import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.saxon.functions.ExtensionFunctionCall;
+
+/**
+ * Removes all responses from the response cache that were cached with one of the 
+ * specified tags.
+ */
+public class InvalidateCachedResponses extends ExtensionFunctionDefinition {
+
+  private static final StructuredQName qName = 
+      new StructuredQName("", Definitions.NAMESPACEURI_XSLWEB_FX_WEBAPP, "invalidate-cached-responses");
+
+  @Override
+  public StructuredQName getFunctionQName() {
+    return qName;
+  }
+
+  @Override
+  public int getMinimumNumberOfArguments() {
+    return 1;
+  }
+
+  @Override
+  public int getMaximumNumberOfArguments() {
+    return 1;
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes() {
+    return new SequenceType[] { SequenceType.STRING_SEQUENCE };
+  }
+
+  @Override
+  public SequenceType getResultType(SequenceType[] suppliedArgumentTypes) {
+    return SequenceType.OPTIONAL_BOOLEAN;
+  }
+
+  @Override
+  public ExtensionFunctionCall makeCallExpression() {
+    return new InvalidateCachedResponsesCall();
+  }
+  
+  private static class InvalidateCachedResponsesCall extends ExtensionFunctionCall {
+
+    @Override
+    public Sequence call(XPathContext context, Sequence[] arguments) throws XPathException {            
+      try {
+        ArrayList<String> tags = new ArrayList<String>();
+        SequenceIterator iter = arguments[0].iterate();
+        Item item;
+        while ((item = iter.next()) != null) {
+          tags.add(item.getStringValue());
+        }
+        getWebApp(context).invalidateCachedResponses(tags);
+        return EmptySequence.getInstance();        
+      } catch (Exception e) {
+        throw new XPathException("Could not invalidate cached responses", e);
+      }
+    }
+  }
+}
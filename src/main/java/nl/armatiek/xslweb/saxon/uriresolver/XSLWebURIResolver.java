@@ -19,6 +19,7 @@ package nl.armatiek.xslweb.saxon.uriresolver;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URI;
@@ -33,8 +34,11 @@ import javax.xml.transform.stream.StreamSource;
 
 import net.sf.saxon.functions.ResolveURI;
 import net.sf.saxon.lib.StandardURIResolver;
+import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.trans.XPathException;
 import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.saxon.destination.NestedResultDestination;
 import nl.armatiek.xslweb.utils.XSLWebUtils;
 import nl.armatiek.xslweb.web.servlet.InternalRequest;
 
@@ -58,6 +62,43 @@ public class XSLWebURIResolver extends StandardURIResolver {
     this.request = request;
   }
   
+  /* 
+   * Returns a destination for the result of a nested request that is resolved on behalf of 
+   * a Saxon transformation, so the result can be handed over as a tree. 
+   */
+  private NestedResultDestination getResultDestination(URI uri) {
+    if (defaultBehaviour != DefaultBehaviour.SAXON || request == null) {
+      return null;
+    }
+    WebApp webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);
+    if (webApp == null) {
+      return null;
+    }
+    NestedResultDestination resultDestination = new NestedResultDestination(webApp.getConfiguration());
+    resultDestination.setBaseURI(uri);
+    return resultDestination;
+  }
+  
+  /* 
+   * Returns the parsed document of a local file from the document pool of the webapp, or 
+   * null when the webapp has no document pool or the document cannot be pooled. 
+   */
+  private NodeInfo getPooledDocument(URI uri, String href, String base) throws Exception {
+    if (request == null) {
+      return null;
+    }
+    WebApp webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);
+    if (webApp == null || webApp.getDocumentPool() == null || (!uri.isAbsolute() && base == null)) {
+      return null;
+    }
+    URI absoluteUri = uri.isAbsolute() ? uri : ResolveURI.makeAbsolute(href, base);
+    if (!"file".equals(absoluteUri.getScheme()) || absoluteUri.getAuthority() != null || 
+        absoluteUri.getQuery() != null || absoluteUri.getFragment() != null) {
+      return null;
+    }
+    return webApp.getDocumentPool().get(new File(absoluteUri), absoluteUri.toString(), webApp);
+  }
+  
   @Override
   public Source resolve(String href, String base) throws XPathException {
     try {
@@ -80,15 +121,25 @@ public class XSLWebURIResolver extends StandardURIResolver {
         if (query != null) {
           path = path + "?" + query;
         }        
-        internalRequest.execute(path, boas, false, request);
+        NestedResultDestination resultDestination = getResultDestination(uri);
+        internalRequest.execute(path, boas, false, request, resultDestination);
+        NodeInfo result = (resultDestination != null) ? resultDestination.getResult() : null;
+        if (result != null) {
+          return result;
+        }
         return new StreamSource(new ByteArrayInputStream(boas.toByteArray()), href);                
       } else if (uri.isAbsolute() && uri.getScheme().startsWith("http") && proxyHost != null && proxyPort != null) {               
         Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost.get(0), Integer.parseInt(proxyPort.get(0))));                       
         URLConnection connection = new URL(href).openConnection(proxy);                                        
         return new StreamSource(connection.getInputStream(), href);  
       }
-      if (defaultBehaviour == DefaultBehaviour.SAXON)
+      if (defaultBehaviour == DefaultBehaviour.SAXON) {
+        NodeInfo document = getPooledDocument(uri, href, base);
+        if (document != null) {
+          return document;
+        }
         return super.resolve(href, base);
+      }
       else {
         URI absoluteUri;
         if (uri.isAbsolute()) 
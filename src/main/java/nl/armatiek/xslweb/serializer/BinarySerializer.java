@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Base64;
 
 import javax.servlet.http.HttpServletRequest;
@@ -51,8 +52,14 @@ public class BinarySerializer extends AbstractSerializer {
   
   private static final String CONTENT_DISPOSITION_HEADER = "%s;filename=\"%2$s\"; filename*=UTF-8''%2$s";
   
+  /* Number of Base64 characters that are decoded at once, must be a multiple of 4: */
+  private static final int CHUNK_SIZE = 8192;
+  
   private OutputStream bos;    
-  private StringBuilder sb;
+  private boolean started;
+  private byte[] encoded;
+  private int encodedLength;
+  private byte[] decoded;
   private static final URLCodec codec = new URLCodec();
   
   public BinarySerializer(WebApp webApp, HttpServletRequest req, HttpServletResponse resp, OutputStream os) {    
@@ -80,6 +87,11 @@ public class BinarySerializer extends AbstractSerializer {
     resp.setHeader("Content-Disposition", 
         format(CONTENT_DISPOSITION_HEADER, (attachment ? "attachment" : "inline"), codec.encode(fileName, "UTF-8")));
     
+    final String contentLength = attributes.getValue("", "content-length");
+    if (contentLength != null && attributes.getValue("", "path") == null) {
+      resp.setHeader("Content-Length", contentLength.trim());
+    }
+    
     final String expireTimeSeconds = attributes.getValue("", "expire-time");
     if (expireTimeSeconds != null) {
       long expires = Long.parseLong(expireTimeSeconds);
@@ -124,8 +136,10 @@ public class BinarySerializer extends AbstractSerializer {
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {       
     try {
-      if (sb == null) {
-        this.sb = new StringBuilder();
+      if (!started) {
+        this.started = true;
+        this.encoded = new byte[CHUNK_SIZE];
+        this.decoded = new byte[CHUNK_SIZE / 4 * 3];
         processBinarySerializer(uri, localName, qName, attributes);
       } else {
         throw new SAXException("Binary serializer output has incorrect format");
@@ -139,8 +153,22 @@ public class BinarySerializer extends AbstractSerializer {
   
   @Override
   public void endElement(String uri, String localName, String qName) throws SAXException {        
+    if (encodedLength > 0) {
+      writeDecoded(Arrays.copyOf(encoded, encodedLength));
+      encodedLength = 0;
+    }
+  }
+  
+  /**
+   * Decodes a number of Base64 characters (a multiple of 4, except for the last 
+   * chunk) and writes the result to the output stream.
+   */
+  private void writeDecoded(byte[] src) throws SAXException {
     try {
-      bos.write(Base64.getDecoder().decode(sb.toString()));
+      int length = Base64.getDecoder().decode(src, decoded);
+      bos.write(decoded, 0, length);
+    } catch (IllegalArgumentException e) {
+      throw new SAXException("Binary serializer output contains invalid Base64 data", e);
     } catch (IOException e) {
       throw new SAXException("Error writing binary serializer output to output stream", e);
     }
@@ -157,8 +185,22 @@ public class BinarySerializer extends AbstractSerializer {
   
   @Override
   public void characters(char[] ch, int start, int length) throws SAXException {
-    if (sb != null) {
-      sb.append(ch, start, length);
+    if (!started) {
+      return;
+    }
+    // Decode as the characters arrive, so the Base64 data is never held as a whole: 
+    for (int i = start; i < start + length; i++) {
+      char c = ch[i];
+      if (Character.isWhitespace(c)) {
+        continue;
+      } else if (c > 127) {
+        throw new SAXException("Binary serializer output contains invalid Base64 data");
+      }
+      encoded[encodedLength++] = (byte) c;
+      if (encodedLength == CHUNK_SIZE) {
+        writeDecoded(encoded);
+        encodedLength = 0;
+      }
     }
   }
   
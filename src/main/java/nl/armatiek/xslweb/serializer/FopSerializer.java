@@ -23,15 +23,24 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.fop.apps.FOUserAgent;
 import org.apache.fop.apps.Fop;
 import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FormattingResults;
 import org.apache.fop.apps.MimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,9 +49,18 @@ import org.xml.sax.ContentHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
 
+import net.sf.saxon.event.NamespaceReducer;
+import net.sf.saxon.event.ReceivingContentHandler;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.tree.tiny.TinyBuilder;
 import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.FopRenderPool;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
 
 /**
  * 
@@ -52,9 +70,20 @@ public class FopSerializer extends AbstractSerializer {
   
   protected static final Logger logger = LoggerFactory.getLogger(FopSerializer.class);
   
+  private static final int BUFFER_THRESHOLD = 1024 * 1024;
+  
   private ContentHandler serializingHandler;
   private ByteArrayOutputStream nsos = null;
   private boolean exceptionThrown = false;
+  private boolean fileOutput = false;
+  private String configName;
+  private FopFactory fopFactory;
+  private FOUserAgent userAgent;
+  private String outputFormat;
+  private Fop fop;
+  private WebAppMetrics.Sample renderSample;
+  private FopRenderPool renderPool;
+  private TinyBuilder foBuilder;
   
   public FopSerializer(WebApp webApp, HttpServletRequest req, HttpServletResponse resp, OutputStream os) {    
     super(webApp, req, resp, os);      
@@ -102,29 +131,127 @@ public class FopSerializer extends AbstractSerializer {
           }
         }                
         this.os = new BufferedOutputStream(new FileOutputStream(outputFile));      
+        this.fileOutput = true;
       }    
-      String configName = attributes.getValue("config-name");
+      configName = attributes.getValue("config-name");
       if (configName == null) {
         throw new SAXException("No attribute \"config-name\" specified on fop-serializer element");
       }        
-      FopFactory fopFactory = webApp.getFopFactory(configName);
-      FOUserAgent userAgent = fopFactory.newFOUserAgent();
+      fopFactory = webApp.getFopFactory(configName);
+      userAgent = fopFactory.newFOUserAgent();
       String mode = attributes.getValue("pdf-a-mode");        
       if (mode != null) {
         userAgent.getRendererOptions().put("pdf-a-mode", mode);
       }
-      String outputFormat = attributes.getValue("output-format");
+      outputFormat = attributes.getValue("output-format");
+      if (outputFormat == null) {
+        outputFormat = MimeConstants.MIME_PDF;
+      }
       boolean nonStreaming = StringUtils.equals(attributes.getValue("non-streaming"), "true"); 
       nsos = (nonStreaming) ? new ByteArrayOutputStream() : null;
-      Fop fop = fopFactory.newFop(outputFormat == null ? MimeConstants.MIME_PDF : outputFormat, 
-          userAgent, (nsos != null) ? nsos : os);
-      this.serializingHandler = fop.getDefaultHandler();
+      renderPool = webApp.getFopRenderPool(configName);
+      if (renderPool == null) {
+        // Render on the request thread while the XSL-FO is generated:
+        renderSample = webApp.getMetrics().startSample();
+        fop = fopFactory.newFop(outputFormat, userAgent, (nsos != null) ? nsos : os);
+        this.serializingHandler = fop.getDefaultHandler();
+      } else if (renderPool.isSaturated()) {
+        reject();
+        this.serializingHandler = new DefaultHandler();
+      } else {
+        // Buffer the XSL-FO document, it is rendered on the render pool at the end of the element:
+        foBuilder = new TinyBuilder(webApp.getConfiguration().makePipelineConfiguration());
+        ReceivingContentHandler contentHandler = new ReceivingContentHandler();
+        contentHandler.setPipelineConfiguration(foBuilder.getPipelineConfiguration());
+        contentHandler.setReceiver(new NamespaceReducer(foBuilder));
+        this.serializingHandler = contentHandler;
+      }
     } catch (Exception e) {
       exceptionThrown = true;
       throw e;
     }
   }
   
+  /**
+   * Renders the buffered XSL-FO document on the render pool and waits until it is 
+   * rendered or the timeout of the pool has elapsed. The render thread writes to a 
+   * buffer (in memory, or a temporary file when it is large) that is copied to the 
+   * output by the request thread, so a render that can not be stopped after a 
+   * timeout never writes to a response that is already recycled. 
+   */
+  private void render(final NodeInfo fo) throws Exception {
+    final DeferredFileOutputStream buffer = new DeferredFileOutputStream(BUFFER_THRESHOLD, "xslweb-fop", ".tmp", null);
+    final AtomicBoolean abandoned = new AtomicBoolean(false);
+    Future<Void> future;
+    try {
+      future = renderPool.submit(() -> {
+        try {
+          WebAppMetrics.Sample sample = webApp.getMetrics().startSample();
+          Fop fop = fopFactory.newFop(outputFormat, userAgent, buffer);
+          webApp.getProcessor().writeXdmValue(new XdmNode(fo), new SAXDestination(fop.getDefaultHandler()));
+          recordRender(fop, sample);
+        } finally {
+          buffer.close();
+          if (abandoned.get()) {
+            deleteBuffer(buffer);
+          }
+        }
+        return null;
+      });
+    } catch (RejectedExecutionException e) {
+      reject();
+      return;
+    }
+    try {
+      future.get(renderPool.getTimeout(), TimeUnit.SECONDS);
+      buffer.writeTo((nsos != null) ? nsos : os);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new SAXException("Rendering of XSL-FO document using configuration \"" + configName + 
+          "\" did not finish within " + renderPool.getTimeout() + " seconds");
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw (cause instanceof Exception) ? (Exception) cause : e;
+    } finally {
+      /* A render that is still running deletes its own temporary file when it finishes: */
+      abandoned.set(true);
+      deleteBuffer(buffer);
+    }
+  }
+  
+  private static void deleteBuffer(DeferredFileOutputStream buffer) {
+    if (!buffer.isInMemory()) {
+      FileUtils.deleteQuietly(buffer.getFile());
+    }
+  }
+  
+  /**
+   * Rejects the request because the render pool is saturated. When the output is 
+   * written to the HTTP response, the client is asked to retry later.
+   */
+  private void reject() throws Exception {
+    webApp.getMetrics().increment(WebAppMetrics.FOP_REJECTED_TOTAL, "config", configName);
+    if (fileOutput || resp == null || resp.isCommitted()) {
+      throw new SAXException("FOP render pool of configuration \"" + configName + "\" is saturated");
+    }
+    nsos = null;
+    resp.setHeader("Retry-After", String.valueOf(renderPool.getRetryAfter()));
+    resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many documents are being rendered, please try again later");
+  }
+  
+  private void recordRender(Fop fop, WebAppMetrics.Sample sample) {
+    WebAppMetrics metrics = webApp.getMetrics();
+    metrics.observe(WebAppMetrics.FOP_RENDER, sample, "config", configName);
+    FormattingResults results = fop.getResults();
+    if (results != null) {
+      metrics.increment(WebAppMetrics.FOP_PAGES_TOTAL, results.getPageCount(), "config", configName);
+    }
+  }
+  
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {        
     try {
@@ -164,6 +291,13 @@ public class FopSerializer extends AbstractSerializer {
       if (isFopSerializer) {        
         this.serializingHandler.endDocument();
         this.serializingHandler = null;        
+        if (foBuilder != null) {
+          NodeInfo fo = foBuilder.getCurrentRoot();
+          foBuilder = null;
+          render(fo);
+        } else if (fop != null) {
+          recordRender(fop, renderSample);
+        }
       } else if (serializingHandler != null) {
         serializingHandler.endElement(uri, localName, qName);      
       }
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.serializer;
+
+import net.sf.saxon.om.NodeInfo;
+import nl.armatiek.xslweb.error.XSLWebException;
+
+/**
+ * Holder of the Request XML of a request. The Request XML is only built by the 
+ * {@link RequestSerializer} the first time it is actually asked for, so requests
+ * that are answered before any stylesheet or query is executed never pay for it. 
+ * Which sections of the Request XML are built is configured per webapp 
+ * (request-xml-sections in webapp.xml).
+ */
+public class LazyRequestDocument {
+  
+  private RequestSerializer requestSerializer;
+  private NodeInfo nodeInfo;
+  
+  public LazyRequestDocument(RequestSerializer requestSerializer) {
+    this.requestSerializer = requestSerializer;
+  }
+  
+  public NodeInfo getNodeInfo() {
+    if (nodeInfo == null) {
+      try {
+        nodeInfo = requestSerializer.serializeToNodeInfo();
+      } catch (XSLWebException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new XSLWebException("Error serializing request to XML", e);
+      }
+    }
+    return nodeInfo;
+  }
+  
+  public boolean isBuilt() {
+    return nodeInfo != null;
+  }
+  
+  /**
+   * Leaves the request body out of the Request XML when it is not built yet, so the 
+   * body can be streamed.
+   */
+  public void excludeBody() {
+    if (nodeInfo == null) {
+      requestSerializer.excludeBody();
+    }
+  }
+  
+  public boolean isBodyConsumed() {
+    return requestSerializer.isBodyConsumed();
+  }
+  
+}
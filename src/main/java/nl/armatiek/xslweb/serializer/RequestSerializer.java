@@ -19,18 +19,22 @@ package nl.armatiek.xslweb.serializer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.servlet.http.Cookie;
@@ -80,6 +84,7 @@ import nl.armatiek.xslweb.configuration.Context;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
 import nl.armatiek.xslweb.error.XSLWebException;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
 import nl.armatiek.xslweb.saxon.functions.httpclient.Types;
 import nl.armatiek.xslweb.utils.XSLWebUtils;
 import nl.armatiek.xslweb.xml.BodyFilter;
@@ -88,6 +93,20 @@ public class RequestSerializer {
   
   private static final String URI = Definitions.NAMESPACEURI_XSLWEB_REQUEST;
   
+  /* Number of bytes that are Base64 encoded at once, must be a multiple of 3: */
+  private static final int BASE64_CHUNK_SIZE = 3 * 4096;
+  
+  public static final String SECTION_HEADERS = "headers";
+  public static final String SECTION_PARAMETERS = "parameters";
+  public static final String SECTION_BODY = "body";
+  public static final String SECTION_ATTRIBUTES = "attributes";
+  public static final String SECTION_FILE_UPLOADS = "file-uploads";
+  public static final String SECTION_SESSION = "session";
+  public static final String SECTION_COOKIES = "cookies";
+  
+  public static final String[] SECTIONS = new String[] { SECTION_HEADERS, SECTION_PARAMETERS, SECTION_BODY, 
+      SECTION_ATTRIBUTES, SECTION_FILE_UPLOADS, SECTION_SESSION, SECTION_COOKIES };
+  
   protected static final Logger logger = LoggerFactory.getLogger(RequestSerializer.class);
   
   private HttpServletRequest req;
@@ -96,6 +115,8 @@ public class RequestSerializer {
   private XMLStreamWriter xsw;
   private XMLReader xmlReader;  
   private File reposDir; 
+  private Set<String> sections;
+  private boolean bodyConsumed;
   
   private static final Object SECURITY_MANAGER;
   
@@ -119,12 +140,16 @@ public class RequestSerializer {
     this.req = req;         
     this.webApp = webApp;
     this.developmentMode = webApp.getDevelopmentMode();    
+    this.sections = webApp.getRequestXMLSections();
   }
   
   public void serializeToXMLStreamWriter(XMLStreamWriter xsw) throws Exception {  
     this.xsw = xsw;
     
-    List<FileItem> fileItems = getMultipartContentItems();
+    List<FileItem> fileItems = null;
+    if (sections.contains(SECTION_PARAMETERS) || sections.contains(SECTION_BODY) || sections.contains(SECTION_FILE_UPLOADS)) {
+      fileItems = getMultipartContentItems();
+    }
  
     xsw.writeStartDocument();                  
     xsw.setPrefix("req", URI);
@@ -132,13 +157,27 @@ public class RequestSerializer {
     xsw.writeNamespace("req", URI);
     
     serializeProperties();
-    serializeHeaders();
-    serializeParameters(fileItems);
-    serializeBody(fileItems);
-    serializeAttributes();
-    serializeFileUploads(fileItems);
-    serializeSession();    
-    serializeCookies();
+    if (sections.contains(SECTION_HEADERS)) {
+      serializeHeaders();
+    }
+    if (sections.contains(SECTION_PARAMETERS)) {
+      serializeParameters(fileItems);
+    }
+    if (sections.contains(SECTION_BODY)) {
+      serializeBody(fileItems);
+    }
+    if (sections.contains(SECTION_ATTRIBUTES)) {
+      serializeAttributes();
+    }
+    if (sections.contains(SECTION_FILE_UPLOADS)) {
+      serializeFileUploads(fileItems);
+    }
+    if (sections.contains(SECTION_SESSION)) {
+      serializeSession();
+    }
+    if (sections.contains(SECTION_COOKIES)) {
+      serializeCookies();
+    }
     
     xsw.writeEndElement();
     xsw.writeEndDocument();
@@ -161,10 +200,34 @@ public class RequestSerializer {
     if (developmentMode) {
       xsw = new IndentingXMLStreamWriter(xsw);
     }
-    serializeToXMLStreamWriter(xsw);
+    WebAppMetrics.Sample sample = webApp.getMetrics().startSample();
+    try {
+      serializeToXMLStreamWriter(xsw);
+    } finally {
+      webApp.getMetrics().observe(WebAppMetrics.REQUEST_XML_BUILD, sample);
+    }
     return builder.getCurrentRoot();
   }
   
+  /**
+   * Leaves the section "body" out of the Request XML, so the request body can be read 
+   * by someone else.
+   */
+  public void excludeBody() {
+    if (sections.contains(SECTION_BODY)) {
+      sections = new HashSet<String>(sections);
+      sections.remove(SECTION_BODY);
+    }
+  }
+  
+  /**
+   * Returns true when the input stream of the request was read while building the 
+   * Request XML (as request body or multipart content).
+   */
+  public boolean isBodyConsumed() {
+    return bodyConsumed;
+  }
+  
   public void close() throws IOException {
     if (reposDir != null && reposDir.exists()) {
       FileUtils.deleteDirectory(reposDir);
@@ -184,6 +247,7 @@ public class RequestSerializer {
       factory.setRepository(reposDir);
       ServletFileUpload upload = new ServletFileUpload(factory);
       upload.setSizeMax(1024 * 1024 * webApp.getMaxUploadSize());
+      bodyConsumed = true;
       items = upload.parseRequest(req);      
     }
     return items;
@@ -327,6 +391,7 @@ public class RequestSerializer {
     } 
     
     PushbackInputStream pbis = new PushbackInputStream(req.getInputStream());
+    bodyConsumed = true;
     int b = pbis.read();
     if (b == -1) {
       pbis.close();
@@ -344,11 +409,25 @@ public class RequestSerializer {
     } else if (Types.isTextType(contentType)) {      
       xsw.writeCharacters(IOUtils.toString(pbis, StringUtils.defaultString(req.getCharacterEncoding(), "UTF-8")));      
     } else {
-      xsw.writeCData(Base64.getEncoder().encodeToString(IOUtils.toByteArray(pbis)));
+      writeBase64(pbis);
     }
     xsw.writeEndElement();
   }
 
+  /**
+   * Writes the content of the input stream as Base64 encoded text in chunks, so the 
+   * binary content is never held in memory as a whole.
+   */
+  private void writeBase64(InputStream is) throws IOException, XMLStreamException {
+    byte[] buffer = new byte[BASE64_CHUNK_SIZE];
+    Base64.Encoder encoder = Base64.getEncoder();
+    int length;
+    while ((length = IOUtils.read(is, buffer)) > 0) {
+      // Only the last chunk can be shorter than the buffer and therefore contain padding:
+      xsw.writeCharacters(encoder.encodeToString((length == buffer.length) ? buffer : Arrays.copyOf(buffer, length)));
+    }
+  }
+
   private void serializeAttributes() throws Exception {
     Enumeration attrNames = req.getAttributeNames();
     if (attrNames.hasMoreElements()) {
@@ -478,33 +557,42 @@ public class RequestSerializer {
     if (this.xmlReader == null) {
       XMLFilterImpl filter = new BodyFilter();
       filter.setContentHandler(new ContentHandlerToXMLStreamWriter(xsw)); 
-      SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-      SAXParser parser = parserFactory.newSAXParser();
-      this.xmlReader = parser.getXMLReader();           
-      this.xmlReader.setFeature("http://xml.org/sax/features/validation", false);
-      this.xmlReader.setFeature("http://xml.org/sax/features/namespaces", true);
-      this.xmlReader.setFeature("http://xml.org/sax/features/namespace-prefixes", false); 
-      if (Context.getInstance().getParserHardening()) {
-        setXMLReaderFeature(this.xmlReader, "http://xml.org/sax/features/external-general-entities", false);
-        setXMLReaderFeature(this.xmlReader, "http://xml.org/sax/features/external-parameter-entities", false);
-        setXMLReaderFeature(this.xmlReader, "http://apache.org/xml/features/disallow-doctype-decl", true);
-        setXMLReaderFeature(this.xmlReader, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-        this.xmlReader.setEntityResolver(new EntityResolver() {
-          @Override
-          public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {            
-            return new InputSource(new StringReader(""));
-          }         
-        });
-        if (SECURITY_MANAGER != null) {
-          setXMLReaderProperty(this.xmlReader, "http://apache.org/xml/properties/security-manager", SECURITY_MANAGER);
-        }
-      }            
+      this.xmlReader = newBodyXMLReader();
       this.xmlReader.setContentHandler(filter);      
     }
     return this.xmlReader;
   }
   
-  private void setXMLReaderFeature(XMLReader reader, String feature, boolean value) {
+  /**
+   * Creates a new XMLReader for parsing request bodies, hardened against entity 
+   * expansion attacks when parser hardening is enabled.
+   */
+  public static XMLReader newBodyXMLReader() throws SAXException, ParserConfigurationException {
+    SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+    SAXParser parser = parserFactory.newSAXParser();
+    XMLReader reader = parser.getXMLReader();           
+    reader.setFeature("http://xml.org/sax/features/validation", false);
+    reader.setFeature("http://xml.org/sax/features/namespaces", true);
+    reader.setFeature("http://xml.org/sax/features/namespace-prefixes", false); 
+    if (Context.getInstance().getParserHardening()) {
+      setXMLReaderFeature(reader, "http://xml.org/sax/features/external-general-entities", false);
+      setXMLReaderFeature(reader, "http://xml.org/sax/features/external-parameter-entities", false);
+      setXMLReaderFeature(reader, "http://apache.org/xml/features/disallow-doctype-decl", true);
+      setXMLReaderFeature(reader, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+      reader.setEntityResolver(new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {            
+          return new InputSource(new StringReader(""));
+        }         
+      });
+      if (SECURITY_MANAGER != null) {
+        setXMLReaderProperty(reader, "http://apache.org/xml/properties/security-manager", SECURITY_MANAGER);
+      }
+    }
+    return reader;
+  }
+  
+  private static void setXMLReaderFeature(XMLReader reader, String feature, boolean value) {
     try {
       reader.setFeature(feature, value);
     } catch (Exception e) {
@@ -512,7 +600,7 @@ public class RequestSerializer {
     }
   }
   
-  private void setXMLReaderProperty(XMLReader reader, String feature, Object value) {
+  private static void setXMLReaderProperty(XMLReader reader, String feature, Object value) {
     try {
       reader.setProperty(feature, value);
     } catch (Exception e) {
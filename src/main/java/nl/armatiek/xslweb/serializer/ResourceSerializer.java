@@ -3,6 +3,8 @@ package nl.armatiek.xslweb.serializer;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -31,6 +33,12 @@ public class ResourceSerializer extends AbstractSerializer {
   
   private static MimeType unknownMimeType = new MimeType(Definitions.MIMETYPE_BINARY);
   
+  private static final int MAX_MIME_TYPE_CACHE_SIZE = 10000;
+  
+  /* Magic detection reads the header of the file, so the detected MIME types are 
+   * cached per path and modification time: */
+  private static final Map<String, CachedMimeType> mimeTypeCache = new ConcurrentHashMap<String, CachedMimeType>();
+  
   public ResourceSerializer(WebApp webApp, HttpServletRequest req, HttpServletResponse resp, OutputStream os) {    
     super(webApp, req, resp, os);      
   }
@@ -75,7 +83,7 @@ public class ResourceSerializer extends AbstractSerializer {
       protected String getContentType(HttpServletRequest request, File file) {
         String contentType = attributes.getValue("", "content-type");
         if (StringUtils.isEmpty(contentType)) {
-          contentType = MimeUtil.getMostSpecificMimeType(MimeUtil.getMimeTypes(file, unknownMimeType)).toString();
+          contentType = getMimeType(file);
         }
         return contentType;
       }
@@ -110,6 +118,22 @@ public class ResourceSerializer extends AbstractSerializer {
     
   }
   
+  private static String getMimeType(File file) {
+    String path = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+    CachedMimeType cached = mimeTypeCache.get(path);
+    if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+      return cached.mimeType;
+    }
+    String mimeType = MimeUtil.getMostSpecificMimeType(MimeUtil.getMimeTypes(file, unknownMimeType)).toString();
+    if (mimeTypeCache.size() >= MAX_MIME_TYPE_CACHE_SIZE) {
+      mimeTypeCache.clear();
+    }
+    mimeTypeCache.put(path, new CachedMimeType(lastModified, length, mimeType));
+    return mimeType;
+  }
+  
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {       
     try {
@@ -136,4 +160,18 @@ public class ResourceSerializer extends AbstractSerializer {
     logger.error(e.getMessage(), e);
   }
   
+  private static class CachedMimeType {
+    
+    private final long lastModified;
+    private final long length;
+    private final String mimeType;
+    
+    public CachedMimeType(long lastModified, long length, String mimeType) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.mimeType = mimeType;
+    }
+    
+  }
+  
 }
\ No newline at end of file
@@ -26,6 +26,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -33,7 +41,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.OutputKeys;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +60,7 @@ import net.sf.saxon.s9api.Serializer;
 import net.sf.saxon.s9api.Serializer.Property;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.utils.XSLWebUtils;
 
 /**
  * 
@@ -59,7 +70,14 @@ public class ZipSerializer extends AbstractSerializer {
   
   protected static final Logger logger = LoggerFactory.getLogger(ZipSerializer.class);
   
+  private static final int MAX_PARALLEL = 16;
+  private static final int SPOOL_THRESHOLD = 1024 * 1024;
+  
   private ZipOutputStream zos;  
+  private int parallel = 1;
+  private ExecutorService entryExecutor;
+  private final Deque<Future<FetchedEntry>> pendingEntries = new ArrayDeque<Future<FetchedEntry>>();
+  private File spoolDir;
   // private SerializerFactory serializerFactory;  
   private StreamWriterToReceiver xsw;  
   private ContentHandler serializingHandler;
@@ -77,9 +95,36 @@ public class ZipSerializer extends AbstractSerializer {
   @Override
   public void close() throws IOException {
     IOUtils.closeQuietly(zos);      
+    for (Future<FetchedEntry> future : pendingEntries) {
+      future.cancel(true);
+    }
+    pendingEntries.clear();
+    entryExecutor = null;
+    if (spoolDir != null) {
+      FileUtils.deleteQuietly(spoolDir);
+      spoolDir = null;
+    }
+  }
+  
+  @SuppressWarnings("deprecation")
+  private void closeQuietly() {
+    IOUtils.closeQuietly(this);
   }
   
   private void processZipSerializer(String uri, String localName, String qName, Attributes attributes) throws Exception {    
+    String parallelValue = attributes.getValue("", "parallel");
+    if (parallelValue != null) {
+      this.parallel = Math.min(Math.max(Integer.parseInt(parallelValue.trim()), 1), MAX_PARALLEL);
+    }
+    if (parallel > 1) {
+      /* File entries are fetched on the pool of the webapp and written in document order: */
+      this.entryExecutor = webApp.getZipEntryExecutor();
+      this.spoolDir = Files.createTempDirectory("xslweb-zip").toFile();
+      if (req != null) {
+        /* Also clean up when the pipeline fails before the end of the document: */
+        XSLWebUtils.addCloseable(req, this);
+      }
+    }
     String path = attributes.getValue("", "path");            
     if (path == null) {
       /* Write to HTTP response: */
@@ -108,37 +153,102 @@ public class ZipSerializer extends AbstractSerializer {
     }
   }
   
-  @SuppressWarnings("deprecation")
   private void processFileEntry(String uri, String localName, String qName, Attributes attributes) throws Exception {
-    String name = attributes.getValue("", "name");
+    final String name = attributes.getValue("", "name");
     if (name == null) {
       throw new SAXException("No attribute \"name\" specified on file-entry element");
     }
-    String src = attributes.getValue("", "src");
+    final String src = attributes.getValue("", "src");
     if (src == null) {
       throw new SAXException("No attribute \"src\" specified on file-entry element");
     }     
-    InputStream in;
+    String method = attributes.getValue("", "method");
+    if (method != null && !method.equals("stored") && !method.equals("deflated")) {
+      throw new SAXException("Invalid value for attribute \"method\" on file-entry element: \"" + method + "\"");
+    }
+    final boolean stored = StringUtils.equals(method, "stored");
+    if (entryExecutor != null) {
+      if (pendingEntries.size() >= parallel) {
+        writeFetchedEntry(pendingEntries.poll());
+      }
+      pendingEntries.add(entryExecutor.submit(() -> fetchEntry(name, src, stored)));
+    } else if (stored) {
+      /* The size and CRC of a stored entry must be known before it is written: */
+      writeFetchedEntry(fetchEntry(name, src, stored));
+    } else {
+      try (InputStream in = openSource(src)) {
+        zos.putNextEntry(new ZipEntry(name));          
+        IOUtils.copy(in, zos);
+      }
+    }
+  }
+  
+  private InputStream openSource(String src) throws Exception {
     if (src.startsWith("http")) {
-      in = new URL(src).openStream();
+      return new URL(src).openStream();
+    } 
+    File file;
+    if (src.startsWith("file:")) {
+      file = new File(new URI(src));
     } else {
-      File file;
-      if (src.startsWith("file:")) {
-        file = new File(new URI(src));
-      } else {
-        file = new File(src);
-      }                  
-      if (!file.isFile()) {
-        throw new SAXException("File \"" + file.getAbsolutePath() + "\" not found");
-      }        
-      in = new BufferedInputStream(new FileInputStream(file));
+      file = new File(src);
+    }                  
+    if (!file.isFile()) {
+      throw new SAXException("File \"" + file.getAbsolutePath() + "\" not found");
     }        
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+  
+  /**
+   * Reads the source of a file entry into memory (or into a temporary file when it is 
+   * large) and computes its CRC.  
+   */
+  private FetchedEntry fetchEntry(String name, String src, boolean stored) throws Exception {
+    DeferredFileOutputStream data = new DeferredFileOutputStream(SPOOL_THRESHOLD, "entry", ".tmp", spoolDir);
+    CRC32 crc = new CRC32();
+    try (InputStream in = new CheckedInputStream(openSource(src), crc)) {
+      IOUtils.copy(in, data);
+    } finally {
+      data.close();
+    }
+    return new FetchedEntry(name, stored, data, crc.getValue());
+  }
+  
+  private void writeFetchedEntry(Future<FetchedEntry> future) throws Exception {
+    FetchedEntry fetched;
     try {
-      ZipEntry entry = new ZipEntry(name);
-      zos.putNextEntry(entry);          
-      IOUtils.copy(in, zos); 
+      fetched = future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw (cause instanceof Exception) ? (Exception) cause : e;
+    }
+    writeFetchedEntry(fetched);
+  }
+  
+  private void writeFetchedEntry(FetchedEntry fetched) throws IOException {
+    try {
+      ZipEntry entry = new ZipEntry(fetched.name);
+      if (fetched.stored) {
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(fetched.data.getByteCount());
+        entry.setCompressedSize(fetched.data.getByteCount());
+        entry.setCrc(fetched.crc);
+      }
+      zos.putNextEntry(entry);
+      fetched.data.writeTo(zos);
     } finally {
-      IOUtils.closeQuietly(in);
+      if (!fetched.data.isInMemory()) {
+        FileUtils.deleteQuietly(fetched.data.getFile());
+      }
+    }
+  }
+  
+  /**
+   * Writes the file entries that are fetched in parallel and not written yet. 
+   */
+  private void writePendingEntries() throws Exception {
+    while (!pendingEntries.isEmpty()) {
+      writeFetchedEntry(pendingEntries.poll());
     }
   }
   
@@ -147,6 +257,7 @@ public class ZipSerializer extends AbstractSerializer {
     if (name == null) {
       throw new SAXException("No attribute \"name\" specified on inline-entry element");
     }
+    writePendingEntries();
     Serializer serializer = webApp.getProcessor().newSerializer(this.zos);    
     for (int i=0; i<attributes.getLength(); i++) {
       String n = attributes.getLocalName(i);
@@ -187,8 +298,10 @@ public class ZipSerializer extends AbstractSerializer {
         processInlineEntry(uri, localName, qName, attributes);
       }
     } catch (SAXException e) {
+      closeQuietly();
       throw e;
     } catch (Exception e) {
+      closeQuietly();
       throw new SAXException(e);
     }
   }
@@ -225,9 +338,17 @@ public class ZipSerializer extends AbstractSerializer {
         altHandler.endDocument();;
         return;
       }
-      close();
+      try {
+        writePendingEntries();
+      } finally {
+        close();
+      }
     } catch (IOException ioe) {
       throw new SAXException("Could not close ZipOutputStream", ioe);
+    } catch (SAXException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SAXException(e);
     }
   }
   
@@ -294,6 +415,22 @@ public class ZipSerializer extends AbstractSerializer {
     }
   }
 
+  private static class FetchedEntry {
+    
+    private final String name;
+    private final boolean stored;
+    private final DeferredFileOutputStream data;
+    private final long crc;
+    
+    public FetchedEntry(String name, boolean stored, DeferredFileOutputStream data, long crc) {
+      this.name = name;
+      this.stored = stored;
+      this.data = data;
+      this.crc = crc;
+    }
+    
+  }
+
   @Override
   public void warning(SAXParseException e) throws SAXException {
     logger.warn(e.getMessage(), e);
@@ -55,6 +55,7 @@ import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.Parameter;
 import nl.armatiek.xslweb.configuration.WebApp;
 import nl.armatiek.xslweb.error.XSLWebException;
+import nl.armatiek.xslweb.serializer.LazyRequestDocument;
 
 /**
  * Miscellaneous XSLWeb specific helper methods.
@@ -136,9 +137,19 @@ public class XSLWebUtils {
   }
   
   
-  @SuppressWarnings("unchecked")
   public static Map<QName, XdmValue> getStylesheetParameters(WebApp webApp, HttpServletRequest req, 
       HttpServletResponse resp, File homeDir) throws Exception {
+    return getStylesheetParameters(webApp, req, resp, homeDir, true);
+  }
+  
+  /**
+   * Returns the standard stylesheet parameters. When requestXML is false the parameter 
+   * req:request-xml-doc is left out, so the Request XML is not built for it; the caller 
+   * then adds it only for stylesheets and queries that declare it. 
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<QName, XdmValue> getStylesheetParameters(WebApp webApp, HttpServletRequest req, 
+      HttpServletResponse resp, File homeDir, boolean requestXML) throws Exception {
     Map<QName, XdmValue> params = new HashMap<QName, XdmValue>();
     
     /* Property parameters : */
@@ -167,8 +178,8 @@ public class XSLWebUtils {
     if (webApp != null) {
       params.put(new QName(Definitions.NAMESPACEURI_XSLWEB_WEBAPP, "webapp"),  XdmValue.wrap(new ObjectValue(webApp)));
     }
-    if (req != null) {
-      NodeInfo requestXMLNode = (NodeInfo) req.getAttribute(Definitions.ATTRNAME_REQUESTXML);
+    if (req != null && requestXML) {
+      NodeInfo requestXMLNode = getRequestXML(req);
       if (requestXMLNode != null) {
         params.put(new QName(Definitions.NAMESPACEURI_XSLWEB_REQUEST, "request-xml-doc"), new XdmNode(requestXMLNode));
       }
@@ -180,6 +191,11 @@ public class XSLWebUtils {
     return params;
   }
   
+  public static NodeInfo getRequestXML(HttpServletRequest req) {
+    LazyRequestDocument requestDocument = (LazyRequestDocument) req.getAttribute(Definitions.ATTRNAME_REQUESTXML);
+    return (requestDocument != null) ? requestDocument.getNodeInfo() : null;
+  }
+  
   @SuppressWarnings("unchecked")
   public static void addCloseable(HttpServletRequest req, Closeable closeable) {
     List<Closeable> closeables = (List<Closeable>) req.getAttribute("xslweb-closeables");
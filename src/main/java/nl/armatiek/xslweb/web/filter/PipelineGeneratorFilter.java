@@ -45,7 +45,9 @@ import net.sf.saxon.s9api.XsltExecutable;
 import nl.armatiek.xslweb.configuration.Context;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
 import nl.armatiek.xslweb.pipeline.PipelineHandler;
+import nl.armatiek.xslweb.pipeline.PipelinePlan;
 import nl.armatiek.xslweb.saxon.debug.DebugUtils;
 import nl.armatiek.xslweb.saxon.errrorlistener.TransformationErrorListener;
 import nl.armatiek.xslweb.saxon.utils.SaxonUtils;
@@ -71,27 +73,42 @@ public class PipelineGeneratorFilter implements Filter {
     try {             
       webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);
       
-      ErrorListener errorListener = new TransformationErrorListener(resp, webApp.getDevelopmentMode());      
-      
-      XsltExecutable templates = webApp.getRequestDispatcherTemplates(errorListener);
-      Xslt30Transformer transformer = templates.load30();
-      transformer.setStylesheetParameters(XSLWebUtils.getStylesheetParameters(webApp, req, resp, homeDir));
-      transformer.setErrorListener(errorListener); 
-      DebugUtils.setDebugTraceListener(webApp, req, transformer);
-      SaxonUtils.setMessageEmitter(transformer.getUnderlyingController(), webApp.getConfiguration(), errorListener);            
-                               
-      PipelineHandler pipelineHandler = new PipelineHandler(webApp);
-      NodeInfo source = (NodeInfo) req.getAttribute(Definitions.ATTRNAME_REQUESTXML);
-      Destination destination = new SAXDestination(pipelineHandler);
-      transformer.setGlobalContextItem(new XdmNode(source));
-      transformer.applyTemplates(source, destination);
+      PipelinePlan pipelinePlan = webApp.getCachedPipelinePlan(req);
+      if (pipelinePlan == null) {
+        WebAppMetrics.Sample sample = webApp.getMetrics().startSample();
+        
+        ErrorListener errorListener = new TransformationErrorListener(resp, webApp.getDevelopmentMode());      
+        
+        XsltExecutable templates = webApp.getRequestDispatcherTemplates(errorListener);
+        Xslt30Transformer transformer = templates.load30();
+        transformer.setStylesheetParameters(XSLWebUtils.getStylesheetParameters(webApp, req, resp, homeDir));
+        transformer.setErrorListener(errorListener); 
+        DebugUtils.setDebugTraceListener(webApp, req, transformer);
+        SaxonUtils.setMessageEmitter(transformer.getUnderlyingController(), webApp.getConfiguration(), errorListener);            
+                                 
+        PipelineHandler pipelineHandler = new PipelineHandler(webApp);
+        NodeInfo source = XSLWebUtils.getRequestXML(req);
+        Destination destination = new SAXDestination(pipelineHandler);
+        transformer.setGlobalContextItem(new XdmNode(source));
+        transformer.applyTemplates(source, destination);
+        
+        pipelinePlan = pipelineHandler.getPipelinePlan();
+        if (pipelineHandler.isPlanCacheable()) {
+          webApp.cachePipelinePlan(pipelineHandler.getPlanCacheKeySpec(), req, pipelinePlan);
+        }
+        
+        webApp.getMetrics().observe(WebAppMetrics.DISPATCHER, sample);
+      }
       
-      req.setAttribute(Definitions.ATTRNAME_PIPELINEHANDLER, pipelineHandler);
+      req.setAttribute(Definitions.ATTRNAME_PIPELINEPLAN, pipelinePlan);
       
       chain.doFilter(request, response);
       
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
+      if (webApp != null) {
+        webApp.getMetrics().increment(WebAppMetrics.ERRORS_TOTAL, "phase", "dispatcher");
+      }
       if (webApp != null && webApp.getDevelopmentMode()) {              
         resp.setContentType("text/plain; charset=UTF-8");        
         e.printStackTrace(new PrintStream(resp.getOutputStream()));        
@@ -35,11 +35,11 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.s9api.Serializer;
 import net.sf.saxon.s9api.XdmNode;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.serializer.LazyRequestDocument;
 import nl.armatiek.xslweb.serializer.RequestSerializer;
 
 public class RequestSerializerFilter implements Filter {
@@ -63,14 +63,14 @@ public class RequestSerializerFilter implements Filter {
       webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);    
       RequestSerializer requestSerializer = new RequestSerializer(req, webApp);
       try {
-        NodeInfo requestNodeInfo = requestSerializer.serializeToNodeInfo();
-        request.setAttribute(Definitions.ATTRNAME_REQUESTXML, requestNodeInfo);      
+        LazyRequestDocument requestDocument = new LazyRequestDocument(requestSerializer);
+        request.setAttribute(Definitions.ATTRNAME_REQUESTXML, requestDocument);      
         if (webApp.getDevelopmentMode()) {
           StringWriter sw = new StringWriter();
           try {
             Serializer ser = webApp.getProcessor().newSerializer(sw);
             ser.setOutputProperty(Serializer.Property.INDENT, "yes");
-            ser.serializeNode(new XdmNode(requestNodeInfo));
+            ser.serializeNode(new XdmNode(requestDocument.getNodeInfo()));
             logger.debug("----------\nREQUEST XML:" + lineSeparator + sw.toString());
           } finally {
             sw.close();
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.web.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.armatiek.xslweb.configuration.Definitions;
+import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.ehcache.CachedResponse;
+import nl.armatiek.xslweb.pipeline.PipelinePlan;
+import nl.armatiek.xslweb.pipeline.ResponseCachePolicy;
+import nl.armatiek.xslweb.web.servlet.DelegatingServletOutputStream;
+
+/**
+ * Filter that serves the output of pipelines that are declared cacheable by the 
+ * request dispatcher (cache="true" on pipeline:pipeline) from the response cache of 
+ * the webapp, and answers conditional GET requests without executing the pipeline.
+ */
+public class ResponseCacheFilter implements Filter {
+  
+  private static final Logger logger = LoggerFactory.getLogger(ResponseCacheFilter.class);
+  
+  public class ResponseCacheResponseWrapper extends HttpServletResponseWrapper {
+    
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private List<String[]> headers = new ArrayList<String[]>();
+    private ServletOutputStream os;
+    private PrintWriter writer;
+    private int status = HttpServletResponse.SC_OK;
+    private boolean cacheable = true;
+    
+    public ResponseCacheResponseWrapper(HttpServletResponse response) {
+      super(response);
+    }
+    
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (os == null) {
+        os = new DelegatingServletOutputStream(body);
+      }
+      return os;
+    }
+    
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(body, getCharacterEncoding()));
+      }
+      return writer;
+    }
+    
+    @Override
+    public void flushBuffer() throws IOException {
+      /* Nothing is committed until the complete response is available: */
+      if (writer != null) {
+        writer.flush();
+      }
+    }
+    
+    @Override
+    public void resetBuffer() {
+      super.resetBuffer();
+      body.reset();
+    }
+    
+    @Override
+    public void reset() {
+      super.reset();
+      body.reset();
+      headers.clear();
+      status = HttpServletResponse.SC_OK;
+    }
+    
+    @Override
+    public void setContentLength(int len) { }
+    
+    @Override
+    public void setStatus(int sc) {
+      super.setStatus(sc);
+      status = sc;
+    }
+    
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+      super.setStatus(sc, sm);
+      status = sc;
+    }
+    
+    @Override
+    public void sendError(int sc) throws IOException {
+      cacheable = false;
+      super.sendError(sc);
+    }
+    
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      cacheable = false;
+      super.sendError(sc, msg);
+    }
+    
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      cacheable = false;
+      super.sendRedirect(location);
+    }
+    
+    @Override
+    public void addCookie(Cookie cookie) {
+      /* Responses that set cookies are specific for one client: */
+      cacheable = false;
+      super.addCookie(cookie);
+    }
+    
+    @Override
+    public void setHeader(String name, String value) {
+      super.setHeader(name, value);
+      removeHeader(name);
+      headers.add(new String[] { name, value });
+    }
+    
+    @Override
+    public void addHeader(String name, String value) {
+      super.addHeader(name, value);
+      headers.add(new String[] { name, value });
+    }
+    
+    @Override
+    public void setIntHeader(String name, int value) {
+      setHeader(name, Integer.toString(value));
+    }
+    
+    @Override
+    public void addIntHeader(String name, int value) {
+      addHeader(name, Integer.toString(value));
+    }
+    
+    @Override
+    public void setDateHeader(String name, long date) {
+      setHeader(name, formatDate(date));
+    }
+    
+    @Override
+    public void addDateHeader(String name, long date) {
+      addHeader(name, formatDate(date));
+    }
+    
+    private void removeHeader(String name) {
+      Iterator<String[]> iter = headers.iterator();
+      while (iter.hasNext()) {
+        if (iter.next()[0].equalsIgnoreCase(name)) {
+          iter.remove();
+        }
+      }
+    }
+    
+    public boolean isCacheable() {
+      return cacheable && status == HttpServletResponse.SC_OK && !StringUtils.containsIgnoreCase(
+          getCachedHeader("Cache-Control"), "no-store");
+    }
+    
+    private String getCachedHeader(String name) {
+      for (String[] header : headers) {
+        if (header[0].equalsIgnoreCase(name)) {
+          return header[1];
+        }
+      }
+      return null;
+    }
+    
+    public List<String[]> getCachedHeaders() {
+      List<String[]> cachedHeaders = new ArrayList<String[]>(headers);
+      String contentType = getContentType();
+      if (contentType != null && getCachedHeader("Content-Type") == null) {
+        cachedHeaders.add(new String[] { "Content-Type", contentType });
+      }
+      return cachedHeaders;
+    }
+    
+    public byte[] getBody() {
+      if (writer != null) {
+        writer.flush();
+      }
+      return body.toByteArray();
+    }
+    
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException { }
+
+  @Override
+  public void destroy() { }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+    HttpServletRequest req = (HttpServletRequest) request;
+    HttpServletResponse resp = (HttpServletResponse) response;
+    WebApp webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);
+    PipelinePlan pipelinePlan = (PipelinePlan) request.getAttribute(Definitions.ATTRNAME_PIPELINEPLAN);
+    ResponseCachePolicy policy = (pipelinePlan != null) ? pipelinePlan.getResponseCachePolicy() : null;
+    String method = req.getMethod();
+    if (policy == null || webApp == null || !webApp.isResponseCacheEnabled() || 
+        !(method.equals("GET") || method.equals("HEAD"))) {
+      chain.doFilter(request, response);
+      return;
+    }
+    
+    String key = getCacheKey(req, policy);
+    if (key == null) {
+      chain.doFilter(request, response);
+      return;
+    }
+    
+    CachedResponse cachedResponse = webApp.getCachedResponse(key);
+    if (cachedResponse != null) {
+      logger.debug("Serving response for \"" + key + "\" from cache");
+      writeResponse(req, resp, cachedResponse, policy);
+      return;
+    }
+    
+    if (method.equals("HEAD")) {
+      chain.doFilter(request, response);
+      return;
+    }
+    
+    /* The body must be captured to be cached, so a nested request cannot hand over its result as a tree: */
+    req.removeAttribute(Definitions.ATTRNAME_NESTEDRESULT);
+    ResponseCacheResponseWrapper wrapper = new ResponseCacheResponseWrapper(resp);
+    chain.doFilter(request, wrapper);
+    
+    byte[] body = wrapper.getBody();
+    if (!wrapper.isCacheable()) {
+      resp.getOutputStream().write(body);
+      return;
+    }
+    cachedResponse = new CachedResponse(HttpServletResponse.SC_OK, wrapper.getCachedHeaders(), body, 
+        "\"" + DigestUtils.md5Hex(body) + "\"", policy.getTimeToLive(), policy.getTimeToIdle(), 
+        new HashSet<String>(policy.getTags()));
+    webApp.cacheResponse(key, cachedResponse);
+    writeCacheHeaders(req, resp, cachedResponse, policy);
+    if (isNotModified(req, cachedResponse, policy)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    resp.setContentLength(body.length);
+    resp.getOutputStream().write(body);
+  }
+  
+  private String getCacheKey(HttpServletRequest req, ResponseCachePolicy policy) {
+    String key = policy.getCacheKey();
+    if (key == null) {
+      String queryString = req.getQueryString();
+      key = "GET " + req.getRequestURI() + ((queryString != null) ? "?" + queryString : "");
+    }
+    if (policy.getScope().equals(ResponseCachePolicy.SCOPE_USER)) {
+      String user = req.getRemoteUser();
+      if (user == null) {
+        HttpSession session = req.getSession(false);
+        if (session == null) {
+          /* No way to identify the user, don't use the cache: */
+          return null;
+        }
+        user = session.getId();
+      }
+      key = key + "|" + user;
+    }
+    return key;
+  }
+  
+  private void writeResponse(HttpServletRequest req, HttpServletResponse resp, CachedResponse cachedResponse, 
+      ResponseCachePolicy policy) throws IOException {
+    writeCacheHeaders(req, resp, cachedResponse, policy);
+    if (isNotModified(req, cachedResponse, policy)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    resp.setStatus(cachedResponse.getStatus());
+    for (String[] header : cachedResponse.getHeaders()) {
+      if (header[0].equalsIgnoreCase("Content-Type")) {
+        resp.setContentType(header[1]);
+      } else {
+        resp.addHeader(header[0], header[1]);
+      }
+    }
+    byte[] body = cachedResponse.getBody();
+    resp.setContentLength(body.length);
+    if (!req.getMethod().equals("HEAD")) {
+      resp.getOutputStream().write(body);
+    }
+  }
+  
+  private void writeCacheHeaders(HttpServletRequest req, HttpServletResponse resp, CachedResponse cachedResponse, 
+      ResponseCachePolicy policy) {
+    resp.setHeader("ETag", cachedResponse.getETag());
+    if (policy.getCacheHeaders()) {
+      resp.setDateHeader("Last-Modified", cachedResponse.getCreated());
+      if (policy.getTimeToLive() > 0) {
+        long expires = cachedResponse.getCreated() + (policy.getTimeToLive() * 1000L);
+        resp.setDateHeader("Expires", expires);
+        resp.setHeader("Cache-Control", 
+            (policy.getScope().equals(ResponseCachePolicy.SCOPE_USER) ? "private" : "public") + 
+            ", max-age=" + Math.max(0, (expires - System.currentTimeMillis()) / 1000));
+      }
+    }
+  }
+  
+  private boolean isNotModified(HttpServletRequest req, CachedResponse cachedResponse, ResponseCachePolicy policy) {
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String etag : StringUtils.split(ifNoneMatch, ',')) {
+        etag = StringUtils.removeStart(etag.trim(), "W/");
+        if (etag.equals("*") || etag.equals(cachedResponse.getETag())) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (policy.getCacheHeaders()) {
+      try {
+        long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        return ifModifiedSince > -1 && (cachedResponse.getCreated() / 1000) <= (ifModifiedSince / 1000);
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+  
+  private static String formatDate(long date) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+  }
+  
+}
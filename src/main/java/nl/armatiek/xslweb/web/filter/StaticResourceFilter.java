@@ -34,10 +34,63 @@ import org.apache.commons.lang3.StringUtils;
 
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.Resource;
+import nl.armatiek.xslweb.configuration.StaticResourceCache;
 import nl.armatiek.xslweb.configuration.WebApp;
 import nl.armatiek.xslweb.web.servlet.FileServlet;
 
 public class StaticResourceFilter implements Filter {
+  
+  private static final String ATTRNAME_STATIC_RESOURCE = "xslweb-static-resource";
+  private static final String ATTRNAME_STATIC_PATH = "xslweb-static-path";
+  
+  /* One servlet instance serves all static resources, the per request data is passed
+   * as request attributes: */
+  private final FileServlet fileServlet = new FileServlet() {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected File getFile(HttpServletRequest request) {
+      WebApp webApp = (WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP);
+      String finalPath = (String) request.getAttribute(ATTRNAME_STATIC_PATH);
+      String cacheBusterId = webApp.getCacheBusterId();
+      if (cacheBusterId != null) {
+        finalPath = StringUtils.remove(finalPath, cacheBusterId);
+      }
+      return webApp.getStaticFile(finalPath);
+    }
+    
+    @Override
+    protected boolean isSendfileAllowed(HttpServletRequest request) {
+      return true;
+    }
+    
+    @Override
+    protected StaticResourceCache getCache(HttpServletRequest request) {
+      return ((WebApp) request.getAttribute(Definitions.ATTRNAME_WEBAPP)).getStaticResourceCache();
+    }
+    
+    @Override
+    protected long getExpireTime(HttpServletRequest request, File file) {
+      Resource resource = (Resource) request.getAttribute(ATTRNAME_STATIC_RESOURCE);
+      Duration duration = resource.getDuration();
+      if (duration != null) {
+        return duration.getTimeInMillis(new Date()) / 1000;
+      };
+      return super.getExpireTime(request, file);
+    }
+    
+    @Override
+    protected String getContentType(HttpServletRequest request, File file) {
+      Resource resource = (Resource) request.getAttribute(ATTRNAME_STATIC_RESOURCE);
+      String contentType = resource.getMediaType();
+      if (contentType == null || contentType.equals("")) {
+        return super.getContentType(request, file);
+      }
+      return contentType;
+    }
+    
+  };
 
   @Override
   public void init(FilterConfig filterConfig) throws ServletException { }
@@ -60,44 +113,13 @@ public class StaticResourceFilter implements Filter {
       } 
       
       // Request must return a static resource:
-      FileServlet fileServlet = new FileServlet() {
-
-        private static final long serialVersionUID = 1L;
-
-        @Override
-        protected File getFile(HttpServletRequest request) {
-          String finalPath = path;
-          String cacheBusterId = webApp.getCacheBusterId();
-          if (cacheBusterId != null) {
-            finalPath = StringUtils.remove(finalPath, cacheBusterId);
-          }
-          return webApp.getStaticFile(finalPath);
-        }
-        
-        @Override
-        protected long getExpireTime(HttpServletRequest request, File file) {
-          Duration duration = resource.getDuration();
-          if (duration != null) {
-            return duration.getTimeInMillis(new Date()) / 1000;
-          };
-          return super.getExpireTime(request, file);
-        }
-        
-        @Override
-        protected String getContentType(HttpServletRequest request, File file) {
-          String contentType = resource.getMediaType();
-          if (contentType == null || contentType.equals("")) {
-            return super.getContentType(request, file);
-          }
-          return contentType;
-        }
-        
-      };
+      req.setAttribute(ATTRNAME_STATIC_RESOURCE, resource);
+      req.setAttribute(ATTRNAME_STATIC_PATH, path);
       
       if (method.equals("GET")) {
-        fileServlet.doGet((HttpServletRequest) request, (HttpServletResponse) response);
+        fileServlet.doGet(req, resp);
       } else if (method.equals("HEAD")) {
-        fileServlet.doHead((HttpServletRequest) request, (HttpServletResponse) response);
+        fileServlet.doHead(req, resp);
       }
     
     }
@@ -106,4 +128,4 @@ public class StaticResourceFilter implements Filter {
   @Override
   public void destroy() { }
 
-}
\ No newline at end of file
+}
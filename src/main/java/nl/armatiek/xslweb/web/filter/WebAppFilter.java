@@ -50,13 +50,24 @@ public class WebAppFilter implements Filter {
     HttpServletRequest req = (HttpServletRequest) request;
     HttpServletResponse resp = (HttpServletResponse) response;            
     WebApp webApp = getWebApp(request);    
+    if (webApp != null && !webApp.enterRequest()) {
+      /* The webapp is being replaced by a new instance, try the current instance: */
+      WebApp currentWebApp = getWebApp(request);
+      webApp = (currentWebApp != webApp && currentWebApp != null && currentWebApp.enterRequest()) ? currentWebApp : null;
+      if (webApp == null) {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return;
+      }
+    }
     if (webApp == null) {
       resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-    } else if (webApp.isClosed()) {
-      resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
     } else {
-      req.setAttribute(Definitions.ATTRNAME_WEBAPP, webApp);
-      chain.doFilter(request, response);
+      try {
+        req.setAttribute(Definitions.ATTRNAME_WEBAPP, webApp);
+        chain.doFilter(request, response);
+      } finally {
+        webApp.exitRequest();
+      }
     }        
   }
 
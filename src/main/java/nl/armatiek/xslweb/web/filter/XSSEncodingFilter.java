@@ -35,7 +35,7 @@ import com.github.rwitzel.streamflyer.regex.RegexModifier;
 
 import nl.armatiek.xslweb.configuration.Attribute;
 import nl.armatiek.xslweb.configuration.Definitions;
-import nl.armatiek.xslweb.pipeline.PipelineHandler;
+import nl.armatiek.xslweb.pipeline.PipelinePlan;
 import nl.armatiek.xslweb.web.servlet.DelegatingServletOutputStream;
 
 public class XSSEncodingFilter implements Filter {
@@ -91,9 +91,9 @@ public class XSSEncodingFilter implements Filter {
   public void destroy() { }
 
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {  
-    PipelineHandler pipelineHandler = (PipelineHandler) request.getAttribute(Definitions.ATTRNAME_PIPELINEHANDLER);
+    PipelinePlan pipelinePlan = (PipelinePlan) request.getAttribute(Definitions.ATTRNAME_PIPELINEPLAN);
     int xssFilterFlags;
-    if (pipelineHandler == null || (xssFilterFlags = pipelineHandler.getXSSFilterFlags()) == 0) {
+    if (pipelinePlan == null || (xssFilterFlags = pipelinePlan.getXSSFilterFlags()) == 0) {
       chain.doFilter(request, response);
       return;
     }
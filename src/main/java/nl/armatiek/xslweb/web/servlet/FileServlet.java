@@ -22,7 +22,6 @@ import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,12 +30,13 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
-import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -53,6 +53,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.armatiek.xslweb.configuration.StaticResourceCache;
+
 public abstract class FileServlet extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
@@ -65,7 +67,14 @@ public abstract class FileServlet extends HttpServlet {
   private static final String MULTIPART_BOUNDARY = UUID.randomUUID().toString();
   private static final String CONTENT_DISPOSITION_HEADER = "%s;filename=\"%2$s\"; filename*=UTF-8''%2$s";
   private static final int DEFAULT_STREAM_BUFFER_SIZE = 10240;
+  private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+  private static final int MAX_ETAG_CACHE_SIZE = 10000;
+  private static final String ATTRNAME_SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String ATTRNAME_SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String ATTRNAME_SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String ATTRNAME_SENDFILE_END = "org.apache.tomcat.sendfile.end";
   private static final URLCodec codec = new URLCodec();
+  private static final Map<String, CachedETag> eTagCache = new ConcurrentHashMap<String, CachedETag>();
 
   @Override
   public void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -80,9 +89,15 @@ public abstract class FileServlet extends HttpServlet {
   private void doRequest(HttpServletRequest request, HttpServletResponse response, boolean head) throws IOException {
     response.reset();
     Resource resource;
+    StaticResourceCache.Entry cached = null;
 
     try {
-      resource = new Resource(getFile(request));
+      File file = getFile(request);
+      StaticResourceCache cache = getCache(request);
+      if (cache != null && file != null) {
+        cached = cache.get(file, StaticResourceCache.isCompressible(getContentType(request, file)));
+      }
+      resource = (cached != null) ? new Resource(cached) : new Resource(file);
     } catch (IllegalArgumentException e) {
       logger.warn("Got an IllegalArgumentException from user code; interpreting it as 400 Bad Request.", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
@@ -99,7 +114,15 @@ public abstract class FileServlet extends HttpServlet {
       return;
     }
 
+    // Best matching encoding of a cached resource; every encoding gets its own ETag:
+    String encoding = (cached != null) ? StaticResourceCache.negotiateEncoding(cached, request.getHeader("Accept-Encoding")) : null;
     setCacheHeaders(response, resource, getExpireTime(request, resource.file));
+    if (encoding != null) {
+      response.setHeader("ETag", getETag(resource.eTag, encoding));
+    }
+    if (cached != null && cached.hasEncodedVariants()) {
+      response.setHeader("Vary", "Accept-Encoding");
+    }
 
     if (notModified(request, resource)) {
       response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
@@ -121,10 +144,33 @@ public abstract class FileServlet extends HttpServlet {
     }
 
     String contentType = setContentHeaders(request, response, resource, ranges);
+    
+    byte[] content = null;
+    if (encoding != null && response.getStatus() == HttpServletResponse.SC_PARTIAL_CONTENT) {
+      // Ranges are always served from the identity encoding: 
+      response.setHeader("ETag", resource.eTag);
+    }
+    if (cached != null && response.getStatus() != HttpServletResponse.SC_PARTIAL_CONTENT) {
+      // Full content of a cached resource, in the best matching encoding:
+      content = cached.getContent(encoding);
+      if (encoding != null) {
+        response.setHeader("Content-Encoding", encoding);
+      }
+      response.setHeader("Content-Length", String.valueOf(content.length));
+    }
 
     if (head) {
       return;
     }
+    
+    if (content == null && ranges.size() == 1 && sendfile(request, resource, ranges.get(0))) {
+      return;
+    }
+    
+    if (content != null) {
+      response.getOutputStream().write(content);
+      return;
+    }
 
     writeContent(response, resource, ranges, contentType);
   }
@@ -147,6 +193,36 @@ public abstract class FileServlet extends HttpServlet {
    */
   protected abstract File getFile(HttpServletRequest request);
 
+  /**
+   * Returns the in-memory cache to serve the file from, or <code>null</code> when 
+   * the file must be read from disk.
+   * <p>
+   * The default implementation returns <code>null</code>.
+   * 
+   * @param request
+   *          The involved HTTP servlet request.
+   * @return The cache of static resources, or <code>null</code>.
+   */
+  protected StaticResourceCache getCache(HttpServletRequest request) {
+    return null;
+  }
+
+  /**
+   * Returns <code>true</code> if the file may be handed over to the container to be 
+   * sent without passing it through the response output stream (Tomcat's sendfile 
+   * support). This is only allowed when the output is not processed or counted by 
+   * XSLWeb itself.
+   * <p>
+   * The default implementation returns <code>false</code>.
+   * 
+   * @param request
+   *          The involved HTTP servlet request.
+   * @return <code>true</code> if the container may send the file.
+   */
+  protected boolean isSendfileAllowed(HttpServletRequest request) {
+    return false;
+  }
+
   /**
    * Handles the case when the file is not found.
    * <p>
@@ -412,11 +488,10 @@ public abstract class FileServlet extends HttpServlet {
   }
   
   /**
-   * Stream a specified range of the given file to the given output via NIO
-   * {@link Channels} and a directly allocated NIO {@link ByteBuffer}. The
-   * output stream will only implicitly be closed after streaming when the
-   * specified range represents the whole file, regardless of whether an
-   * exception is been thrown or not.
+   * Stream a specified range of the given file to the given output via
+   * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets
+   * the JDK transfer the bytes without allocating a buffer per call. The output 
+   * stream is not closed.
    * 
    * @param file
    *          The file.
@@ -433,33 +508,34 @@ public abstract class FileServlet extends HttpServlet {
    * @since 2.2
    */
   public static long stream(File file, OutputStream output, long start, long length) throws IOException {
-    if (start == 0 && length >= file.length()) {
-      return stream(new FileInputStream(file), output);
-    }
-
-    try (FileChannel fileChannel = (FileChannel) Files.newByteChannel(file.toPath(), StandardOpenOption.READ)) {
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
       WritableByteChannel outputChannel = Channels.newChannel(output);
-      ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_STREAM_BUFFER_SIZE);
-      long size = 0;
-
-      while (fileChannel.read(buffer, start + size) != -1) {
-        buffer.flip();
-
-        if (size + buffer.limit() > length) {
-          buffer.limit((int) (length - size));
-        }
-
-        size += outputChannel.write(buffer);
-
-        if (size >= length) {
+      long end = Math.min(start + length, fileChannel.size());
+      long position = start;
+      while (position < end) {
+        long transferred = fileChannel.transferTo(position, end - position, outputChannel);
+        if (transferred <= 0) {
           break;
         }
-
-        buffer.clear();
+        position += transferred;
       }
+      return position - start;
+    }
+  }
 
-      return size;
+  /**
+   * Hands the given range of the file over to the container when it supports sendfile.
+   * Returns <code>false</code> when the content must be written by the servlet itself.
+   */
+  private boolean sendfile(HttpServletRequest request, Resource resource, Range range) throws IOException {
+    if (range.length < SENDFILE_MIN_SIZE || !isSendfileAllowed(request) || 
+        !Boolean.TRUE.equals(request.getAttribute(ATTRNAME_SENDFILE_SUPPORT))) {
+      return false;
     }
+    request.setAttribute(ATTRNAME_SENDFILE_FILENAME, resource.file.getCanonicalPath());
+    request.setAttribute(ATTRNAME_SENDFILE_START, Long.valueOf(range.start));
+    request.setAttribute(ATTRNAME_SENDFILE_END, Long.valueOf(range.end + 1));
+    return true;
   }
 
   /**
@@ -494,7 +570,16 @@ public abstract class FileServlet extends HttpServlet {
   private static boolean matches(String matchHeader, String eTag) {
     String[] matchValues = matchHeader.split("\\s*,\\s*");
     Arrays.sort(matchValues);
-    return Arrays.binarySearch(matchValues, eTag) > -1 || Arrays.binarySearch(matchValues, "*") > -1;
+    return Arrays.binarySearch(matchValues, eTag) > -1 || Arrays.binarySearch(matchValues, "*") > -1
+        || Arrays.binarySearch(matchValues, getETag(eTag, "gzip")) > -1 || Arrays.binarySearch(matchValues, getETag(eTag, "br")) > -1;
+  }
+  
+  /**
+   * Returns the ETag of the given content encoding of a resource with the given 
+   * (identity) ETag.
+   */
+  private static String getETag(String eTag, String encoding) {
+    return (encoding == null) ? eTag : eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
   }
 
   /**
@@ -524,8 +609,40 @@ public abstract class FileServlet extends HttpServlet {
     return Arrays.binarySearch(acceptValues, toAccept) > -1 || Arrays.binarySearch(acceptValues, toAccept.replaceAll("/.*$", "/*")) > -1 || Arrays.binarySearch(acceptValues, "*/*") > -1;
   }
 
+  /**
+   * Returns the ETag of the given file, cached per path and modification time.
+   */
+  private static String getETag(File file, long lastModified) {
+    String path = file.getPath();
+    CachedETag cached = eTagCache.get(path);
+    if (cached != null && cached.lastModified == lastModified) {
+      return cached.eTag;
+    }
+    String eTag;
+    try {
+      eTag = format(ETAG, codec.encode(file.getName(), "UTF-8"), lastModified);
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(e);
+    }
+    if (eTagCache.size() >= MAX_ETAG_CACHE_SIZE) {
+      eTagCache.clear();
+    }
+    eTagCache.put(path, new CachedETag(lastModified, eTag));
+    return eTag;
+  }
+
   // Nested classes
   // -------------------------------------------------------------------------------------------------
+  
+  private static class CachedETag {
+    private final long lastModified;
+    private final String eTag;
+    
+    public CachedETag(long lastModified, String eTag) {
+      this.lastModified = lastModified;
+      this.eTag = eTag;
+    }
+  }
 
   /**
    * Convenience class for a file resource.
@@ -541,11 +658,7 @@ public abstract class FileServlet extends HttpServlet {
         this.file = file;
         length = file.length();
         lastModified = file.lastModified();
-        try {
-          eTag = format(ETAG, codec.encode(file.getName(), "UTF-8"), lastModified);
-        } catch (Exception e) {
-          throw new UnsupportedOperationException(e);
-        }
+        eTag = getETag(file, lastModified);
       } else {
         this.file = null;
         length = 0;
@@ -553,6 +666,13 @@ public abstract class FileServlet extends HttpServlet {
         eTag = null;
       }
     }
+    
+    public Resource(StaticResourceCache.Entry entry) {
+      file = entry.getFile();
+      length = entry.getLength();
+      lastModified = entry.getLastModified();
+      eTag = getETag(file, lastModified);
+    }
 
   }
 
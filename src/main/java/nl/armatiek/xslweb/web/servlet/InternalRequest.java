@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.Filter;
 import javax.servlet.ServletContext;
@@ -38,8 +40,10 @@ import nl.armatiek.xslweb.configuration.Attribute;
 import nl.armatiek.xslweb.configuration.Context;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
+import nl.armatiek.xslweb.saxon.destination.NestedResultDestination;
 import nl.armatiek.xslweb.web.filter.PipelineGeneratorFilter;
 import nl.armatiek.xslweb.web.filter.RequestSerializerFilter;
+import nl.armatiek.xslweb.web.filter.ResponseCacheFilter;
 import nl.armatiek.xslweb.web.filter.SetCharacterEncodingFilter;
 import nl.armatiek.xslweb.web.filter.WebAppFilter;
 
@@ -47,40 +51,60 @@ public class InternalRequest {
   
   private static final Logger logger = LoggerFactory.getLogger(InternalRequest.class);
   
-  public int execute(String path, OutputStream os, boolean isJobRequest, HttpServletRequest parentRequest) throws ServletException, IOException {
+  /* The filters and servlet hold no request state, so one initialized chain is shared by all internal requests: */
+  private static Filter[] filters;
+  private static HttpServlet servlet;
+  
+  private static synchronized XSLWebFilterChain newFilterChain() throws ServletException {
+    if (servlet == null) {
+      initFilterChain();
+    }
+    return new XSLWebFilterChain(servlet, filters);
+  }
+  
+  private static void initFilterChain() throws ServletException {
+    ArrayList<Filter> filterList = new ArrayList<Filter>();
+    XSLWebFilterConfig emptyConfig = new XSLWebFilterConfig();
+    
+    Filter filter;
+    filter = new SetCharacterEncodingFilter();
+    XSLWebFilterConfig config = new XSLWebFilterConfig();
+    config.addInitParameter("encoding", "UTF-8");
+    filter.init(config);
+    filterList.add(filter);
+    
+    filter = new WebAppFilter();
+    filter.init(emptyConfig);
+    filterList.add(filter);
+    
+    filter = new RequestSerializerFilter();
+    filter.init(emptyConfig);
+    filterList.add(filter);
+    
+    filter = new PipelineGeneratorFilter();
+    filter.init(emptyConfig);
+    filterList.add(filter);
+    
+    filter = new ResponseCacheFilter();
+    filter.init(emptyConfig);
+    filterList.add(filter);
+    
+    HttpServlet xslWebServlet = new XSLWebServlet();
+    xslWebServlet.init();
+    
+    filters = filterList.toArray(new Filter[filterList.size()]);
+    servlet = xslWebServlet;
+  }
+  
+  /**
+   * Executes an internal request. When resultDestination is not null, the result of the last
+   * (XML producing) step of the pipeline is written to resultDestination instead of being 
+   * serialized to os. 
+   */
+  public int execute(String path, OutputStream os, boolean isJobRequest, HttpServletRequest parentRequest, 
+      NestedResultDestination resultDestination) throws ServletException, IOException {
     try {
-      ArrayList<Filter> filters = new ArrayList<Filter>();
-      XSLWebFilterConfig emptyConfig = new XSLWebFilterConfig();
-      
-      Filter filter;
-      filter = new SetCharacterEncodingFilter();
-      XSLWebFilterConfig config = new XSLWebFilterConfig();
-      config.addInitParameter("encoding", "UTF-8");
-      filter.init(config);
-      filters.add(filter);
-      
-      filter = new WebAppFilter();
-      filter.init(emptyConfig);
-      filters.add(filter);
-      
-      filter = new RequestSerializerFilter();
-      filter.init(emptyConfig);
-      filters.add(filter);
-      
-      filter = new PipelineGeneratorFilter();
-      filter.init(emptyConfig);
-      filters.add(filter);
-      
-      /*
-      filter = new CachingFilter();
-      filter.init(emptyConfig);
-      filters.add(filter);
-      */
-      
-      HttpServlet servlet = new XSLWebServlet();
-      servlet.init();
-            
-      XSLWebFilterChain filterChain = new XSLWebFilterChain(servlet, filters.toArray(new Filter[filters.size()]));
+      XSLWebFilterChain filterChain = newFilterChain();
       
       ServletContext servletContext = Context.getInstance().getServletContext();
       
@@ -90,11 +114,25 @@ public class InternalRequest {
         Enumeration<String> names = parentRequest.getAttributeNames();
         while (names.hasMoreElements()) {
           String name = names.nextElement();
-          internalRequest.setAttribute(name, parentRequest.getAttribute(name));
+          Object value = parentRequest.getAttribute(name);
+          if (name.equals("xslweb-closeables")) {
+            /* The internal request closes its own closeables, not those of the parent request */
+            continue;
+          } else if (name.equals("xslweb-script-engines")) {
+            /* Script engines borrowed by the parent can be used, engines borrowed by the internal request are its own */
+            value = new HashMap<Object, Object>((Map<?, ?>) value);
+          }
+          internalRequest.setAttribute(name, value);
         }
         setAttribute(internalRequest, Definitions.ATTRNAME_ISNESTEDREQUEST, Boolean.TRUE);
       }
       
+      if (resultDestination != null) {
+        internalRequest.setAttribute(Definitions.ATTRNAME_NESTEDRESULT, resultDestination);
+      } else {
+        internalRequest.removeAttribute(Definitions.ATTRNAME_NESTEDRESULT);
+      }
+      
       if (isJobRequest) {
         setAttribute(internalRequest, Definitions.ATTRNAME_ISJOBREQUEST, Boolean.TRUE);
       }
@@ -131,6 +169,10 @@ public class InternalRequest {
     request.setAttribute(name, attrs);
   }
   
+  public int execute(String path, OutputStream os, boolean isJobRequest, HttpServletRequest parentRequest) throws ServletException, IOException {
+    return execute(path, os, isJobRequest, parentRequest, null);
+  }
+  
   public int execute(String path, OutputStream os, boolean isJobRequest) throws ServletException, IOException {
     return execute(path, os, isJobRequest, null);
   }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.armatiek.xslweb.web.servlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.armatiek.xslweb.configuration.Context;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
+
+/**
+ * Exposes the metrics of all webapps (or of the webapp specified in the request 
+ * parameter "webapp") in the Prometheus text exposition format. The servlet only 
+ * responds when the property xslweb.metrics.enable is set to true in xslweb.properties.
+ */
+public class MetricsServlet extends HttpServlet {
+  
+  private static final Logger logger = LoggerFactory.getLogger(MetricsServlet.class);
+  
+  private static final long serialVersionUID = 1L;
+  
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    Context context = Context.getInstance();
+    if (!context.getMetricsEnable()) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    try {
+      Collection<WebAppMetrics> metrics = context.getMetrics();
+      String webAppName = req.getParameter("webapp");
+      if (webAppName != null) {
+        metrics = new ArrayList<WebAppMetrics>();
+        for (WebAppMetrics webAppMetrics : context.getMetrics()) {
+          if (webAppMetrics.getWebAppName().equals(webAppName)) {
+            metrics.add(webAppMetrics);
+          }
+        }
+      }
+      resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+      resp.setHeader("Cache-Control", "no-cache");
+      Writer writer = resp.getWriter();
+      WebAppMetrics.writeText(metrics, writer);
+      writer.flush();
+    } catch (Exception e) {
+      logger.error("Error writing metrics", e);
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error writing metrics");      
+    }
+  }
+  
+}
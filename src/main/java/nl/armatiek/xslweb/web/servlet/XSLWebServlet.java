@@ -26,6 +26,7 @@ import java.io.PrintStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -42,10 +43,12 @@ import javax.xml.transform.ErrorListener;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
@@ -53,12 +56,21 @@ import javax.xml.validation.Validator;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.io.output.ProxyWriter;
+import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
 
 import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ReceivingContentHandler;
+import net.sf.saxon.om.AxisInfo;
 import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.s9api.Destination;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.Serializer;
@@ -72,18 +84,20 @@ import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import net.sf.saxon.s9api.Xslt30Transformer;
 import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.serialize.SerializationProperties;
 import net.sf.saxon.stax.XMLStreamWriterDestination;
+import net.sf.saxon.type.Type;
 import nl.armatiek.xslweb.configuration.Context;
 import nl.armatiek.xslweb.configuration.Definitions;
 import nl.armatiek.xslweb.configuration.WebApp;
 import nl.armatiek.xslweb.error.XSLWebException;
 import nl.armatiek.xslweb.joost.MessageEmitter;
+import nl.armatiek.xslweb.metrics.WebAppMetrics;
 import nl.armatiek.xslweb.pipeline.BinarySerializerStep;
 import nl.armatiek.xslweb.pipeline.FopSerializerStep;
-import nl.armatiek.xslweb.pipeline.IdentityTransformerStep;
 import nl.armatiek.xslweb.pipeline.JSONSerializerStep;
 import nl.armatiek.xslweb.pipeline.ParameterizablePipelineStep;
-import nl.armatiek.xslweb.pipeline.PipelineHandler;
+import nl.armatiek.xslweb.pipeline.PipelinePlan;
 import nl.armatiek.xslweb.pipeline.PipelineStep;
 import nl.armatiek.xslweb.pipeline.QueryStep;
 import nl.armatiek.xslweb.pipeline.ResourceSerializerStep;
@@ -97,6 +111,7 @@ import nl.armatiek.xslweb.pipeline.TransformerSTXStep;
 import nl.armatiek.xslweb.pipeline.TransformerStep;
 import nl.armatiek.xslweb.pipeline.ZipSerializerStep;
 import nl.armatiek.xslweb.saxon.debug.DebugUtils;
+import nl.armatiek.xslweb.saxon.destination.NestedResultDestination;
 import nl.armatiek.xslweb.saxon.destination.SourceDestination;
 import nl.armatiek.xslweb.saxon.destination.TeeSourceDestination;
 import nl.armatiek.xslweb.saxon.destination.XdmSourceDestination;
@@ -105,6 +120,8 @@ import nl.armatiek.xslweb.saxon.errrorlistener.ValidatorErrorHandler;
 import nl.armatiek.xslweb.saxon.uriresolver.XSLWebURIResolver;
 import nl.armatiek.xslweb.saxon.uriresolver.XSLWebURIResolver.DefaultBehaviour;
 import nl.armatiek.xslweb.saxon.utils.SaxonUtils;
+import nl.armatiek.xslweb.serializer.LazyRequestDocument;
+import nl.armatiek.xslweb.serializer.RequestSerializer;
 import nl.armatiek.xslweb.utils.Closeable;
 import nl.armatiek.xslweb.utils.XSLWebUtils;
 import nl.armatiek.xslweb.xml.CleanupXMLStreamWriter;
@@ -114,6 +131,8 @@ public class XSLWebServlet extends HttpServlet {
   private static final long serialVersionUID = 1L;
   
   private static final Logger logger = LoggerFactory.getLogger(XSLWebServlet.class);
+  
+  private static final QName REQUEST_XML_DOC = new QName(Definitions.NAMESPACEURI_XSLWEB_REQUEST, "request-xml-doc");
     
   private File homeDir;    
   
@@ -130,10 +149,12 @@ public class XSLWebServlet extends HttpServlet {
   @SuppressWarnings("unchecked")
   @Override
   protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-    OutputStream respOs = resp.getOutputStream();    
+    CountingOutputStream respOs = new CountingOutputStream(resp.getOutputStream());    
     WebApp webApp = null;
+    WebAppMetrics.Sample sample = null;
     try {            
       webApp = (WebApp) req.getAttribute(Definitions.ATTRNAME_WEBAPP);
+      sample = webApp.getMetrics().startSample();
       if (webApp.isClosed()) {
         resp.resetBuffer();
         resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
@@ -145,6 +166,10 @@ public class XSLWebServlet extends HttpServlet {
       executeRequest(webApp, req, resp, respOs);         
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
+      if (webApp != null) {
+        webApp.getMetrics().increment(WebAppMetrics.ERRORS_TOTAL, "phase", "pipeline", 
+            "pipeline", getPipelineLabel(req));
+      }
       if (webApp != null && webApp.getDevelopmentMode()) {              
         resp.setContentType("text/plain; charset=UTF-8");        
         e.printStackTrace(new PrintStream(respOs));        
@@ -156,6 +181,13 @@ public class XSLWebServlet extends HttpServlet {
         w.write("<html><body><h1>Internal Server Error</h1></body></html>");
       }
     } finally {
+      if (sample != null) {
+        String pipelineLabel = getPipelineLabel(req);
+        webApp.getMetrics().observe(WebAppMetrics.REQUEST, sample, "pipeline", pipelineLabel);
+        webApp.getMetrics().increment(WebAppMetrics.RESPONSE_BYTES_TOTAL, respOs.getByteCount(), 
+            "pipeline", pipelineLabel);
+      }
+      
       // Delete any registered temporary files:
       try {
         List<File> tempFiles = (List<File>) req.getAttribute(Definitions.ATTRNAME_TEMPFILES);                        
@@ -234,7 +266,11 @@ public class XSLWebServlet extends HttpServlet {
       OutputStream os, Properties outputProperties, PipelineStep currentStep, PipelineStep nextStep, 
       ErrorListener errorListener) throws Exception {
     Destination dest;
-    if (nextStep == null) {      
+    NestedResultDestination nestedResult = (nextStep == null) ? getNestedResultDestination(webApp, req, outputProperties) : null;
+    if (nestedResult != null) {
+      /* Hand the result of a nested request to the requesting pipeline as a tree: */
+      dest = nestedResult;
+    } else if (nextStep == null) {      
       Serializer serializer = webApp.getProcessor().newSerializer(os);
       if (outputProperties != null) {
         for (String key : outputProperties.stringPropertyNames()) {
@@ -271,28 +307,112 @@ public class XSLWebServlet extends HttpServlet {
     return getDestination(webApp, dest, currentStep);
   }
   
-  private Result getResult(WebApp webApp, HttpServletRequest req, HttpServletResponse resp, 
-      OutputStream os, Properties outputProperties, PipelineStep currentStep, PipelineStep nextStep) throws Exception {
-    Result result;
-    if (nextStep == null) {
-      result = new StreamResult(os);
-    } else {
-      result = new StreamResult(new ByteArrayOutputStream());
+  private NestedResultDestination getNestedResultDestination(WebApp webApp, HttpServletRequest req, Properties outputProperties) {
+    NestedResultDestination dest = (NestedResultDestination) req.getAttribute(Definitions.ATTRNAME_NESTEDRESULT);
+    if (dest == null || !dest.accepts(webApp.getConfiguration())) {
+      return null;
     }
+    String method = (outputProperties != null) ? outputProperties.getProperty(OutputKeys.METHOD) : null;
+    if (method != null && !(method.equals("xml") || method.equals("xhtml") || method.equals("html"))) {
+      return null;
+    }
+    return dest;
+  }
+  
+  private Result getSAXResult(WebApp webApp, Destination destination) throws Exception {
+    /* Bridge the SAX events of an STX transformation directly into a Saxon destination: */
+    PipelineConfiguration pipe = webApp.getConfiguration().makePipelineConfiguration();
+    ReceivingContentHandler handler = new ReceivingContentHandler();
+    handler.setPipelineConfiguration(pipe);
+    handler.setReceiver(destination.getReceiver(pipe, new SerializationProperties()));
+    SAXResult result = new SAXResult(handler);
+    result.setLexicalHandler(handler);
     return result;
   }
   
+  private void initSTXTransformer(Transformer transformer, HttpServletRequest req, TransformerSTXStep step, 
+      ErrorListener errorListener, Map<QName, XdmValue> baseStylesheetParameters, 
+      Map<QName, XdmValue> extraStylesheetParameters) throws Exception {
+    transformer.setErrorListener(errorListener);
+    transformer.setURIResolver(new XSLWebURIResolver(DefaultBehaviour.STREAM, req));
+    ((net.sf.joost.trax.TransformerImpl)transformer).getStxProcessor().setMessageEmitter(new MessageEmitter());
+    Map<String, Object> stylesheetParameters = getStylesheetParametersJAXP(step, 
+        baseStylesheetParameters, extraStylesheetParameters);
+    for (Map.Entry<String, Object> entry : stylesheetParameters.entrySet()) {
+      transformer.setParameter(entry.getKey(), entry.getValue());
+    }
+  }
+  
   private Source makeNodeInfoSource(Source source, WebApp webApp, ErrorListener errorListener) throws Exception {
     if (source instanceof NodeInfo) {
       return source;
     }
-    XdmDestination dest = new XdmDestination();
-    webApp.getIdentityXsltExecutable().load30().applyTemplates(source, dest);
-    return dest.getXdmNode().asSource();
+    WebAppMetrics.Sample sample = webApp.getMetrics().startSample();
+    try {
+      XdmDestination dest = new XdmDestination();
+      webApp.getIdentityXsltExecutable().load30().applyTemplates(source, dest);
+      return dest.getXdmNode().asSource();
+    } finally {
+      webApp.getMetrics().observe(WebAppMetrics.TREE_BUILD, sample);
+    }
+  }
+  
+  private String getPipelineLabel(HttpServletRequest req) {
+    PipelinePlan pipelinePlan = (PipelinePlan) req.getAttribute(Definitions.ATTRNAME_PIPELINEPLAN);
+    if (pipelinePlan == null || pipelinePlan.getName() == null) {
+      return "unnamed";
+    }
+    return pipelinePlan.getName();
+  }
+  
+  /**
+   * Returns the label of the steps first to last (inclusive) in the metrics; steps that are 
+   * executed together (as push chain or STX chain) are reported as one.
+   */
+  private String getStepLabel(List<PipelineStep> steps, int first, int last) {
+    StringBuilder sb = new StringBuilder();
+    for (int i=first; i<=last; i++) {
+      if (i > first) {
+        sb.append('+');
+      }
+      PipelineStep step = steps.get(i);
+      if (step.getName() != null) {
+        sb.append(step.getName());
+      } else {
+        sb.append(step.getClass().getSimpleName()).append('#').append(i+1);
+      }
+    }
+    return sb.toString();
+  }
+  
+  private Source getRequestBodySource(WebApp webApp, HttpServletRequest req) throws Exception {
+    LazyRequestDocument requestDocument = (LazyRequestDocument) req.getAttribute(Definitions.ATTRNAME_REQUESTXML);
+    if (requestDocument != null) {
+      /* When the Request XML is built later on, it must not read the body that is streamed: */
+      requestDocument.excludeBody();
+    }
+    if (requestDocument != null && requestDocument.isBodyConsumed()) {
+      /* The request body was already read while building the Request XML, use the copy in there: */
+      logger.warn("Request body could not be streamed because it is already part of the Request XML; " 
+          + "exclude section \"body\" in request-xml-sections of webapp.xml to enable streaming");
+      NodeInfo requestXML = requestDocument.getNodeInfo();
+      NodeInfo body = requestXML.iterateAxis(AxisInfo.DESCENDANT, new NameTest(Type.ELEMENT, 
+          Definitions.NAMESPACEURI_XSLWEB_REQUEST, "body", requestXML.getConfiguration().getNamePool())).next();
+      NodeInfo bodyElem = (body != null) ? body.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT).next() : null;
+      if (bodyElem == null) {
+        throw new XSLWebException("Request does not contain an XML body");
+      }
+      XdmDestination dest = new XdmDestination();
+      webApp.getIdentityXsltExecutable().load30().applyTemplates(bodyElem, dest);
+      return dest.getXdmNode().getUnderlyingNode();
+    }
+    InputSource inputSource = new InputSource(new BOMInputStream(req.getInputStream()));
+    inputSource.setSystemId(req.getRequestURL().toString());
+    return new SAXSource(RequestSerializer.newBodyXMLReader(), inputSource);
   }
   
   private Source makeJAXPSource(Source source) throws Exception {
-    if (source instanceof DOMResult || source instanceof StreamResult || source instanceof DOMResult) {
+    if (source instanceof StreamSource || source instanceof SAXSource || source instanceof DOMSource) {
       return source;
     } else if (source instanceof NodeInfo) {
       return new DOMSource(NodeOverNodeInfo.wrap((NodeInfo) source));
@@ -315,6 +435,13 @@ public class XSLWebServlet extends HttpServlet {
     return stylesheetParameters;
   }
   
+  private void addRequestXMLParameter(HttpServletRequest req, Map<QName, XdmValue> stylesheetParameters) {
+    NodeInfo requestXML = XSLWebUtils.getRequestXML(req);
+    if (requestXML != null) {
+      stylesheetParameters.put(REQUEST_XML_DOC, new XdmNode(requestXML));
+    }
+  }
+  
   private Map<String, Object> getStylesheetParametersJAXP(ParameterizablePipelineStep step,
       Map<QName, XdmValue> base, Map<QName, XdmValue> extra) throws IOException {
     Map<QName, XdmValue> params = getStylesheetParameters(step, base, extra);
@@ -329,105 +456,207 @@ public class XSLWebServlet extends HttpServlet {
     return stylesheetParameters;
   }
   
-  private void preprocessPipelines(WebApp webApp, List<PipelineStep> steps) {
-    for (int i=0; i<steps.size(); i++) {
-      PipelineStep step = steps.get(i);
-      if (step instanceof TransformerSTXStep && i<steps.size()) {
-        /* Add extra identity transformation after STX transformation that is not the 
-         * last transformation in the pipeline: */
-        steps.add(i+1, new IdentityTransformerStep());
-      }
-    } 
+  private boolean isChainableStep(PipelineStep step) {
+    return step instanceof TransformerStep || step instanceof QueryStep;
+  }
+  
+  private Xslt30Transformer loadTransformer(WebApp webApp, HttpServletRequest req, TransformerStep step, 
+      ErrorListener errorListener, Map<QName, XdmValue> baseStylesheetParameters, 
+      Map<QName, XdmValue> extraStylesheetParameters) throws Exception {
+    String xslPath = null;
+    if (step instanceof SystemTransformerStep) {
+      xslPath = new File(homeDir, "common/xsl/" + step.getXslPath()).getAbsolutePath();                      
+    } else {          
+      xslPath = step.getXslPath();
+    }
+    XsltExecutable templates = webApp.getXsltExecutable(xslPath, errorListener); 
+    Xslt30Transformer transformer = templates.load30();
+    SaxonUtils.setMessageEmitter(transformer.getUnderlyingController(), webApp.getConfiguration(), errorListener);
+    transformer.setErrorListener(errorListener);
+    DebugUtils.setDebugTraceListener(webApp, req, transformer);
+    Map<QName, XdmValue> stylesheetParameters = getStylesheetParameters(step, 
+        baseStylesheetParameters, extraStylesheetParameters);
+    if (templates.getGlobalParameters().containsKey(REQUEST_XML_DOC)) {
+      addRequestXMLParameter(req, stylesheetParameters);
+    }
+    transformer.setStylesheetParameters(stylesheetParameters);
+    transformer.setURIResolver(new XSLWebURIResolver(DefaultBehaviour.SAXON, req));
+    return transformer;
+  }
+  
+  private void executeTransformer(WebApp webApp, HttpServletRequest req, TransformerStep step, Source source, 
+      Destination destination, ErrorListener errorListener, Map<QName, XdmValue> baseStylesheetParameters, 
+      Map<QName, XdmValue> extraStylesheetParameters, boolean streamedSource) throws Exception {
+    Xslt30Transformer transformer = loadTransformer(webApp, req, step, errorListener, 
+        baseStylesheetParameters, extraStylesheetParameters);
+    if (streamedSource) {
+      /* Streamed input cannot be the global context item: */
+      transformer.applyTemplates(source, destination);
+    } else {
+      NodeInfo nodeInfo = (NodeInfo) makeNodeInfoSource(source, webApp, errorListener);
+      transformer.setGlobalContextItem(new XdmNode(nodeInfo));
+      transformer.applyTemplates(nodeInfo, destination);
+    }
+  }
+  
+  private XQueryEvaluator loadQuery(WebApp webApp, HttpServletRequest req, QueryStep step, 
+      ErrorListener errorListener, Map<QName, XdmValue> baseStylesheetParameters, 
+      Map<QName, XdmValue> extraStylesheetParameters) throws Exception {
+    XQueryExecutable xquery = webApp.getQuery(step.getXQueryPath(), errorListener);
+    XQueryEvaluator eval = xquery.load();
+    eval.setErrorListener(errorListener);
+    DebugUtils.setDebugTraceListener(webApp,  req, eval);
+    Map<QName, XdmValue> stylesheetParameters = getStylesheetParameters(step, 
+        baseStylesheetParameters, extraStylesheetParameters);
+    if (ArrayUtils.contains(xquery.getUnderlyingCompiledQuery().getExternalVariableNames(), REQUEST_XML_DOC.getStructuredQName())) {
+      addRequestXMLParameter(req, stylesheetParameters);
+    }
+    for (Map.Entry<QName, XdmValue> entry : stylesheetParameters.entrySet()) {
+      eval.setExternalVariable(entry.getKey(), entry.getValue());
+    }
+    return eval;
+  }
+  
+  private void executeQuery(WebApp webApp, HttpServletRequest req, QueryStep step, Source source, 
+      Destination destination, ErrorListener errorListener, Map<QName, XdmValue> baseStylesheetParameters, 
+      Map<QName, XdmValue> extraStylesheetParameters) throws Exception {
+    XQueryEvaluator eval = loadQuery(webApp, req, step, errorListener, 
+        baseStylesheetParameters, extraStylesheetParameters);
+    NodeInfo nodeInfo = (NodeInfo) makeNodeInfoSource(source, webApp, errorListener);
+    eval.setContextItem(new XdmNode(nodeInfo));
+    eval.run(destination);
   }
   
   private void executeRequest(WebApp webApp, HttpServletRequest req, HttpServletResponse resp, 
       OutputStream respOs) throws Exception {        
     boolean developmentMode = webApp.getDevelopmentMode();               
     
-    Source source = (NodeInfo) req.getAttribute(Definitions.ATTRNAME_REQUESTXML);
-    
-    PipelineHandler pipelineHandler = (PipelineHandler) req.getAttribute(Definitions.ATTRNAME_PIPELINEHANDLER);
+    PipelinePlan pipelinePlan = (PipelinePlan) req.getAttribute(Definitions.ATTRNAME_PIPELINEPLAN);
          
     TransformationErrorListener errorListener = new TransformationErrorListener(resp, developmentMode);      
     
-    List<PipelineStep> steps = pipelineHandler.getPipelineSteps();
-    if (steps == null || steps.isEmpty()) {
+    if (pipelinePlan.getPipelineSteps().isEmpty()) {
       resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Resource not found");
       return;
     }
-    preprocessPipelines(webApp, steps);
+    /* The pipeline plan can be shared with other requests, so work on a copy: */
+    List<PipelineStep> steps = new ArrayList<PipelineStep>(pipelinePlan.getPipelineSteps());
     
     OutputStream os = (developmentMode) ? new ByteArrayOutputStream() : respOs;
     
     Properties outputProperties = getOutputProperties(webApp, errorListener, steps);
     
-    Map<QName, XdmValue> baseStylesheetParameters = XSLWebUtils.getStylesheetParameters(webApp, req, resp, homeDir);
+    /* The Request XML is only built when it is the source of the first step or is declared 
+     * as parameter req:request-xml-doc by one of the stylesheets or queries: */
+    Map<QName, XdmValue> baseStylesheetParameters = XSLWebUtils.getStylesheetParameters(webApp, req, resp, homeDir, false);
     
     addResponseTransformationStep(webApp, steps);
     
     Map<QName, XdmValue> extraStylesheetParameters = null;
     Destination destination = null;
     
+    Source source = null;
+    boolean streamRequestBody = pipelinePlan.getStreamRequestBody();
+    if (streamRequestBody) {
+      /* The first transformer step reads the request body directly; the Request XML is 
+       * available to it via the stylesheet parameter req:request-xml-doc: */
+      source = getRequestBodySource(webApp, req);
+    } else if (!(steps.get(0) instanceof ResponseStep)) {
+      source = XSLWebUtils.getRequestXML(req);
+    }
+    
+    WebAppMetrics metrics = webApp.getMetrics();
+    String pipelineLabel = getPipelineLabel(req);
+    
     for (int i=0; i<steps.size(); i++) {
       PipelineStep step = steps.get(i);
       if (step instanceof SerializerStep) {
         break;
       }
+      int firstStep = i;
+      WebAppMetrics.Sample stepSample = metrics.startSample();
       PipelineStep nextStep = (i<steps.size()-1) ? steps.get(i+1) : null;
-      if (step instanceof TransformerStep) {
-        String xslPath = null;
-        if (step instanceof SystemTransformerStep) {
-          xslPath = new File(homeDir, "common/xsl/" + ((TransformerStep) step).getXslPath()).getAbsolutePath();                      
-        } else {          
-          xslPath = ((TransformerStep) step).getXslPath();
+      if (step instanceof TransformerStep || step instanceof QueryStep) {
+        int last = i;
+        if (pipelinePlan.getPushChain()) {
+          while (last < steps.size()-1 && isChainableStep(steps.get(last+1))) {
+            last++;
+          }
         }
-        XsltExecutable templates = webApp.getXsltExecutable(xslPath, errorListener); 
-        Xslt30Transformer transformer = templates.load30();
-        SaxonUtils.setMessageEmitter(transformer.getUnderlyingController(), webApp.getConfiguration(), errorListener);
-        transformer.setErrorListener(errorListener);
-        DebugUtils.setDebugTraceListener(webApp, req, transformer);
-        Map<QName, XdmValue> stylesheetParameters = getStylesheetParameters((ParameterizablePipelineStep) step, 
-            baseStylesheetParameters, extraStylesheetParameters);
-        transformer.setStylesheetParameters(stylesheetParameters);
-        destination = getDestination(webApp, req, resp, os, outputProperties, step, nextStep, errorListener);
-        NodeInfo nodeInfo = (NodeInfo) makeNodeInfoSource(source, webApp, errorListener);
-        transformer.setGlobalContextItem(new XdmNode(nodeInfo));
-        transformer.setURIResolver(new XSLWebURIResolver(DefaultBehaviour.SAXON, req));
-        transformer.applyTemplates(nodeInfo, destination);
-      } else if (step instanceof QueryStep) {
-        String xqueryPath = ((QueryStep) step).getXQueryPath();
-        XQueryExecutable xquery = webApp.getQuery(xqueryPath, errorListener);
-        XQueryEvaluator eval = xquery.load();
-        eval.setErrorListener(errorListener);
-        DebugUtils.setDebugTraceListener(webApp,  req, eval);
-        Map<QName, XdmValue> stylesheetParameters = getStylesheetParameters((ParameterizablePipelineStep) step, 
-            baseStylesheetParameters, extraStylesheetParameters);
-        for (Map.Entry<QName, XdmValue> entry : stylesheetParameters.entrySet()) {
-          eval.setExternalVariable(entry.getKey(), entry.getValue());
+        if (last > i) {
+          /* Link the following XSLT and XQuery steps as a push chain, building the chain 
+           * backwards from the destination of its last step: */
+          PipelineStep afterChain = (last<steps.size()-1) ? steps.get(last+1) : null;
+          destination = getDestination(webApp, req, resp, os, outputProperties, steps.get(last), afterChain, errorListener);
+          Destination chainDestination = destination;
+          for (int j=last; j>i; j--) {
+            PipelineStep chainStep = steps.get(j);
+            Destination stepDestination;
+            if (chainStep instanceof TransformerStep) {
+              stepDestination = loadTransformer(webApp, req, (TransformerStep) chainStep, errorListener, 
+                  baseStylesheetParameters, null).asDocumentDestination(chainDestination);
+            } else {
+              XQueryEvaluator eval = loadQuery(webApp, req, (QueryStep) chainStep, errorListener, 
+                  baseStylesheetParameters, null);
+              eval.setDestination(chainDestination);
+              stepDestination = eval;
+            }
+            chainDestination = getDestination(webApp, stepDestination, steps.get(j-1));
+          }
+          if (step instanceof TransformerStep) {
+            executeTransformer(webApp, req, (TransformerStep) step, source, chainDestination, errorListener, 
+                baseStylesheetParameters, extraStylesheetParameters, streamRequestBody && i == 0);
+          } else {
+            executeQuery(webApp, req, (QueryStep) step, source, chainDestination, errorListener, 
+                baseStylesheetParameters, extraStylesheetParameters);
+          }
+          i = last;
+        } else {
+          destination = getDestination(webApp, req, resp, os, outputProperties, step, nextStep, errorListener);
+          if (step instanceof TransformerStep) {
+            executeTransformer(webApp, req, (TransformerStep) step, source, destination, errorListener, 
+                baseStylesheetParameters, extraStylesheetParameters, streamRequestBody && i == 0);
+          } else {
+            executeQuery(webApp, req, (QueryStep) step, source, destination, errorListener, 
+                baseStylesheetParameters, extraStylesheetParameters);
+          }
         }
-        destination = getDestination(webApp, req, resp, os, outputProperties, step, nextStep, errorListener);
-        NodeInfo nodeInfo = (NodeInfo) makeNodeInfoSource(source, webApp, errorListener);
-        eval.setContextItem(new XdmNode(nodeInfo));
-        eval.run(destination);
       } else if (step instanceof TransformerSTXStep) {
-        String stxPath = ((TransformerSTXStep) step).getStxPath();
-        Templates templates = webApp.getTemplates(stxPath, errorListener);
-        Transformer transformer = templates.newTransformer();
-        transformer.setErrorListener(errorListener);
-        transformer.setURIResolver(new XSLWebURIResolver(DefaultBehaviour.STREAM, req));
-        ((net.sf.joost.trax.TransformerImpl)transformer).getStxProcessor().setMessageEmitter(new MessageEmitter());
-        Map<String, Object> stylesheetParameters = getStylesheetParametersJAXP((ParameterizablePipelineStep) step, 
-            baseStylesheetParameters, extraStylesheetParameters);
-        for (Map.Entry<String, Object> entry : stylesheetParameters.entrySet()) {
-          transformer.setParameter(entry.getKey(), entry.getValue());
+        /* Adjacent STX steps are linked via SAX TransformerHandlers, the output of the last 
+         * one is pushed directly into the destination of the next (non STX) step: */
+        int last = i;
+        while (last < steps.size()-1 && steps.get(last+1) instanceof TransformerSTXStep) {
+          last++;
         }
-        source = makeJAXPSource(source);
-        Result result = getResult(webApp, req, resp, os, outputProperties, step, nextStep);
-        transformer.transform(source, result);
-        if (nextStep != null) {
-          ByteArrayOutputStream baos = (ByteArrayOutputStream) ((StreamResult) result).getOutputStream();
-          source = new StreamSource(new ByteArrayInputStream(baos.toByteArray()));
+        PipelineStep afterChain = (last<steps.size()-1) ? steps.get(last+1) : null;
+        Result result;
+        if (afterChain == null) {
+          destination = null;
+          result = new StreamResult(os);
+        } else {
+          destination = getDestination(webApp, req, resp, os, outputProperties, steps.get(last), afterChain, errorListener);
+          result = getSAXResult(webApp, destination);
         }
+        SAXTransformerFactory stxTransformerFactory = (last > i) ? new net.sf.joost.trax.TransformerFactoryImpl() : null;
+        for (int j=last; j>i; j--) {
+          TransformerSTXStep chainStep = (TransformerSTXStep) steps.get(j);
+          TransformerHandler handler = stxTransformerFactory.newTransformerHandler(
+              webApp.getTemplates(chainStep.getStxPath(), errorListener));
+          initSTXTransformer(handler.getTransformer(), req, chainStep, errorListener, 
+              baseStylesheetParameters, null);
+          handler.setResult(result);
+          SAXResult saxResult = new SAXResult(handler);
+          saxResult.setLexicalHandler(handler);
+          result = saxResult;
+        }
+        Transformer transformer = webApp.getTemplates(((TransformerSTXStep) step).getStxPath(), errorListener).newTransformer();
+        initSTXTransformer(transformer, req, (TransformerSTXStep) step, errorListener, 
+            baseStylesheetParameters, extraStylesheetParameters);
+        transformer.transform(makeJAXPSource(source), result);
+        if (destination != null) {
+          destination.closeAndNotify();
+        }
+        i = last;
       } else if (step instanceof SchemaValidatorStep) {
         SchemaValidatorStep svStep = (SchemaValidatorStep) step;
         List<String> schemaPaths = svStep.getSchemaPaths();
@@ -510,6 +739,9 @@ public class XSLWebServlet extends HttpServlet {
         continue;
       }
       
+      metrics.observe(WebAppMetrics.STEP, stepSample, "pipeline", pipelineLabel, 
+          "step", getStepLabel(steps, firstStep, i));
+      
       if (destination instanceof SourceDestination) {
         /* Set source for next pipeline step: */
         source = ((SourceDestination) destination).asSource();